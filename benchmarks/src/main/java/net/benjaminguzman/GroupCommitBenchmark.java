@@ -0,0 +1,93 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 32 threads writing complete lines.
+ * <p>
+ * Written directly to {@link PromptOutputStream}, every line is a write (plus the prompt) and a flush, one thread at
+ * a time. With {@link GroupCommitOutputStream}, lines written while another thread is writing are written together,
+ * so compare the {@code writes} and {@code flushes} counters against the score (see {@link Sinks.Counters})
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class GroupCommitBenchmark {
+	private static final byte[] LINE = "2024-01-01 00:00:00 INFO Lorem ipsum dolor sit amet\n"
+		.getBytes(StandardCharsets.UTF_8);
+
+	@Param({"null", "file"})
+	public String sink;
+
+	Sinks.Sink out;
+	PromptOutputStream promptOutputStream;
+	GroupCommitOutputStream groupCommitOutputStream;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		out = Sinks.create(sink);
+		promptOutputStream = new PromptOutputStream(out).setPrompt(">>> ");
+		groupCommitOutputStream = new GroupCommitOutputStream(promptOutputStream);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		out.close();
+	}
+
+	@Benchmark
+	public void promptOutputStream(Sinks.Counters counters) throws IOException {
+		promptOutputStream.write(LINE);
+	}
+
+	@Benchmark
+	public void groupCommitOutputStream(Sinks.Counters counters) throws IOException {
+		groupCommitOutputStream.write(LINE);
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of printing a line (and the prompt after it) with every write method, for different line lengths and
+ * sinks.
+ * <p>
+ * All the benchmark threads share the same streams. To measure contention, run it with different thread counts
+ * ({@code -t}), or use {@link BenchmarkSuite}, which runs it with 1 to 64 threads and the gc profiler.
+ * <p>
+ * The {@code writes} and {@code flushes} counters are the calls to the sink (see {@link Sinks.Counters})
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LineBenchmark {
+	/**
+	 * Length of the line in bytes, including the new line
+	 */
+	@Param({"5", "80", "1024", "65536"})
+	public int lineLength;
+
+	@Param({"null", "baos", "file", "pipe"})
+	public String sink;
+
+	/**
+	 * The line, including the new line
+	 */
+	byte[] line;
+
+	/**
+	 * The line, without the new line (for println)
+	 */
+	String text;
+
+	/**
+	 * The line, including the new line
+	 */
+	String textLine;
+
+	Sinks.Sink out;
+	PromptOutputStream promptOutputStream;
+	PrintStream printStream;
+	PromptPrintStream promptPrintStream;
+	PromptWriter promptWriter;
+	PromptByteChannel promptByteChannel;
+	AsyncPromptOutputStream asyncPromptOutputStream;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		line = new byte[lineLength];
+		Arrays.fill(line, (byte) 'a');
+		line[lineLength - 1] = '\n';
+		textLine = new String(line, StandardCharsets.UTF_8);
+		text = textLine.substring(0, lineLength - 1);
+
+		out = Sinks.create(sink);
+		promptOutputStream = new PromptOutputStream(out).setPrompt(">>> ").setStatusIcon("🧪");
+		printStream = new PrintStream(promptOutputStream, true, StandardCharsets.UTF_8);
+		promptPrintStream = new PromptPrintStream(
+			new PromptOutputStream(out).setPrompt(">>> ").setStatusIcon("🧪"),
+			StandardCharsets.UTF_8
+		);
+		promptWriter = new PromptWriter(
+			new PromptOutputStream(out).setPrompt(">>> ").setStatusIcon("🧪"),
+			StandardCharsets.UTF_8
+		);
+		promptByteChannel = new PromptByteChannel(out.channel).setPrompt(">>> ").setStatusIcon("🧪");
+		asyncPromptOutputStream = new AsyncPromptOutputStream(
+			new PromptOutputStream(out).setPrompt(">>> ").setStatusIcon("🧪")
+		);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		asyncPromptOutputStream.close();
+		out.close();
+	}
+
+	/**
+	 * Buffer used by {@link PromptByteChannel}. Buffers have a position, so they can't be shared between threads
+	 */
+	@State(Scope.Thread)
+	public static class ThreadBuffer {
+		ByteBuffer buffer;
+
+		@Setup(Level.Trial)
+		public void setup(LineBenchmark benchmark) {
+			buffer = ByteBuffer.wrap(benchmark.line);
+		}
+	}
+
+	@Benchmark
+	public void writeBytes(Sinks.Counters counters) throws IOException {
+		promptOutputStream.write(line);
+	}
+
+	@Benchmark
+	public void writeByteByByte(Sinks.Counters counters) throws IOException {
+		for (byte b : line)
+			promptOutputStream.write(b);
+	}
+
+	@Benchmark
+	public void printStreamPrintln(Sinks.Counters counters) {
+		printStream.println(text);
+	}
+
+	@Benchmark
+	public void promptPrintStreamPrintln(Sinks.Counters counters) {
+		promptPrintStream.println(text);
+	}
+
+	@Benchmark
+	public void promptWriterWrite(Sinks.Counters counters) throws IOException {
+		promptWriter.write(textLine);
+	}
+
+	@Benchmark
+	public void byteChannelWrite(Sinks.Counters counters, ThreadBuffer threadBuffer) throws IOException {
+		threadBuffer.buffer.clear();
+		promptByteChannel.write(threadBuffer.buffer);
+	}
+
+	@Benchmark
+	public void asyncWrite(Sinks.Counters counters) throws IOException {
+		asyncPromptOutputStream.write(line);
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.benjaminguzman;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the output of a prompt in the same process, with {@link PromptPipe} and with
+ * {@link PipedOutputStream}/{@link PipedInputStream} (using a buffer of the same size).
+ * <p>
+ * A thread reads everything written, as fast as it can
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipeBenchmark {
+	private static final byte[] LINE_BYTES = "2024-01-01 00:00:00 INFO Lorem ipsum dolor sit amet\n"
+		.getBytes(StandardCharsets.UTF_8);
+
+	@Param({"promptpipe", "piped"})
+	public String pipe;
+
+	OutputStream out;
+	InputStream in;
+	PromptOutputStream promptOutputStream;
+	Thread reader;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		if (pipe.equals("promptpipe")) {
+			PromptPipe promptPipe = new PromptPipe();
+			out = promptPipe.getOutputStream();
+			in = promptPipe.getInputStream();
+		} else {
+			PipedOutputStream pipedOutputStream = new PipedOutputStream();
+			in = new PipedInputStream(pipedOutputStream, PromptPipe.DEFAULT_CAPACITY);
+			out = pipedOutputStream;
+		}
+		promptOutputStream = new PromptOutputStream(out).setPrompt(">>> ");
+
+		reader = new Thread(() -> {
+			byte[] buf = new byte[8 * 1024];
+			try {
+				while (in.read(buf) != -1) ;
+			} catch (IOException ignored) {
+			} // the pipe was closed
+		}, "benchmark-pipe-reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException, InterruptedException {
+		out.close();
+		reader.join(5_000);
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		out.write(LINE_BYTES);
+	}
+
+	@Benchmark
+	public void promptWrite() throws IOException {
+		promptOutputStream.write(LINE_BYTES);
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the usual {@code PrintStream(PromptOutputStream(PrintStream(out)))} stack against
+ * {@link PromptPrintStream}, which encodes chars once and takes a single lock.
+ * <p>
+ * The stream is shared by all the benchmark threads, so run it with {@code -t 4} (or more) to measure contention
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrintStreamBenchmark {
+	private static final String LINE = "Lorem ipsum dolor sit amet, consectetur adipiscing elit";
+
+	PrintStream wrappedPrintStream;
+	PromptPrintStream promptPrintStream;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		PrintStream rawPrintStream = new PrintStream(OutputStream.nullOutputStream(), true, StandardCharsets.UTF_8);
+		PromptOutputStream promptOutputStream = new PromptOutputStream(rawPrintStream)
+			.setPrompt(">>> ")
+			.setStatusIcon("🧪");
+		wrappedPrintStream = new PrintStream(promptOutputStream, true, StandardCharsets.UTF_8);
+
+		promptPrintStream = new PromptPrintStream(
+			new PromptOutputStream(OutputStream.nullOutputStream()).setPrompt(">>> ").setStatusIcon("🧪"),
+			StandardCharsets.UTF_8
+		);
+	}
+
+	@Benchmark
+	public void wrappedPrintStream() {
+		wrappedPrintStream.println(LINE);
+	}
+
+	@Benchmark
+	public void promptPrintStream() {
+		promptPrintStream.println(LINE);
+	}
+}
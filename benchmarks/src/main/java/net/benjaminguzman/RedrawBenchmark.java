@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the bytes written to redraw the prompt.
+ * <p>
+ * Divide the {@code bytes} counter by the score to get the bytes per redraw (see {@link Sinks.Counters}). Changing
+ * an icon for another one of the same width (e.g. a braille spinner) only rewrites the icon, while icons with
+ * unknown width (e.g. emoji) and {@link PromptOutputStream#printPrompt()} rewrite the whole line
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RedrawBenchmark {
+	private static final String PROMPT = "user@host:~/projects/PromptOutput$ ";
+
+	Sinks.Sink out;
+	PromptOutputStream promptOutputStream;
+	int frame;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		out = Sinks.create("null");
+		promptOutputStream = new PromptOutputStream(out).setPrompt(PROMPT);
+		promptOutputStream.printPrompt();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		out.close();
+	}
+
+	@Benchmark
+	public void spinnerIcons(Sinks.Counters counters) {
+		promptOutputStream.printPrompt(Spinner.DOTS.get(++frame % Spinner.DOTS.size()));
+	}
+
+	@Benchmark
+	public void emojiIcons(Sinks.Counters counters) {
+		promptOutputStream.printPrompt((++frame & 1) == 0 ? "⏳" : "⌛");
+	}
+
+	@Benchmark
+	public void printPrompt(Sinks.Counters counters) {
+		promptOutputStream.printPrompt();
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the bytes written when the same line is written over and over (e.g. by a retry loop).
+ * <p>
+ * Divide the {@code bytes} counter by the score to get the bytes per line (see {@link Sinks.Counters}). {@code off}
+ * writes every line (and scrolls the terminal), {@code collapse} rewrites the line with a counter every time, and
+ * {@code interval} rewrites the counter at most once every 16 ms (a counter written later by the scheduler thread
+ * is not counted)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepeatedLineBenchmark {
+	private static final byte[] LINE = "Connection refused, retrying...\n".getBytes(StandardCharsets.UTF_8);
+
+	@Param({"off", "collapse", "interval"})
+	public String mode;
+
+	Sinks.Sink out;
+	PromptOutputStream promptOutputStream;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		out = Sinks.create("null");
+		promptOutputStream = new PromptOutputStream(out).setPrompt(">>> ");
+		if (!mode.equals("off"))
+			promptOutputStream.setRepeatedLineWindow(64);
+		if (mode.equals("interval"))
+			promptOutputStream.setRedrawInterval(Duration.ofMillis(16));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		out.close();
+	}
+
+	@Benchmark
+	public void repeatedLine(Sinks.Counters counters) throws IOException {
+		promptOutputStream.write(LINE);
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+
+/**
+ * Output streams (and channels) the benchmarks write to.
+ * <p>
+ * Every sink counts the calls to write and flush (and the bytes written) made by the benchmark thread that owns
+ * the {@link Counters}. Counters are reported by JMH as rates, so compare them against the score to get writes (or
+ * flushes, or bytes) per operation
+ */
+public final class Sinks {
+	/**
+	 * Counters of the current benchmark thread
+	 */
+	private static final ThreadLocal<Counters> COUNTERS = new ThreadLocal<>();
+
+	/**
+	 * Truncate files (or reset buffers) after this many bytes, so the benchmarks don't run out of disk (or memory)
+	 */
+	private static final int MAX_SIZE = 64 * 1024 * 1024;
+
+	private Sinks() {
+	}
+
+	/**
+	 * Calls to the sink made by the benchmark thread.
+	 * <p>
+	 * Calls made by other threads (e.g. the drainer thread of {@link AsyncPromptOutputStream}) are not counted
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long writes;
+		public long flushes;
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			writes = 0;
+			flushes = 0;
+			bytes = 0;
+			COUNTERS.set(this);
+		}
+	}
+
+	/**
+	 * @param type one of: null, baos, file, pipe
+	 * @return a new sink of the given type
+	 */
+	static @NotNull Sink create(@NotNull String type) throws IOException {
+		switch (type) {
+			case "null":
+				return new Sink(OutputStream.nullOutputStream(), null);
+			case "baos":
+				return new Sink(new ResettableByteArrayOutputStream(), null);
+			case "file":
+				return fileSink();
+			case "pipe":
+				return pipeSink();
+			default:
+				throw new IllegalArgumentException("Unknown sink: " + type);
+		}
+	}
+
+	private static @NotNull Sink fileSink() throws IOException {
+		File file = File.createTempFile("prompt-benchmark", ".txt");
+		file.deleteOnExit();
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+		// the stream shares the position with the RandomAccessFile, so seeking to 0 truncates the output
+		OutputStream out = new FileOutputStream(randomAccessFile.getFD()) {
+			@Override
+			public void write(byte @NotNull [] b, int off, int len) throws IOException {
+				if (randomAccessFile.getFilePointer() > MAX_SIZE)
+					randomAccessFile.seek(0);
+				super.write(b, off, len);
+			}
+		};
+		return new Sink(out, randomAccessFile);
+	}
+
+	private static @NotNull Sink pipeSink() throws IOException {
+		Pipe pipe = Pipe.open();
+		Thread reader = new Thread(() -> {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+			try {
+				while (pipe.source().read(buffer) != -1)
+					buffer.clear();
+			} catch (IOException ignored) {
+			} // the pipe was closed
+		}, "benchmark-pipe-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		return new Sink(Channels.newOutputStream(pipe.sink()), pipe.sink()) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				pipe.source().close();
+			}
+		};
+	}
+
+	/**
+	 * {@link ByteArrayOutputStream} that is reset once it gets too big
+	 */
+	private static class ResettableByteArrayOutputStream extends ByteArrayOutputStream {
+		@Override
+		public synchronized void write(byte @NotNull [] b, int off, int len) {
+			if (count > MAX_SIZE)
+				reset();
+			super.write(b, off, len);
+		}
+	}
+
+	/**
+	 * Output stream that counts calls and forwards them to the real sink
+	 */
+	static class Sink extends OutputStream {
+		private final @NotNull OutputStream out;
+
+		/**
+		 * Something to close along with the stream (e.g. the file), or null
+		 */
+		private final @Nullable AutoCloseable resource;
+
+		/**
+		 * The sink as a {@link GatheringByteChannel}, for {@link PromptByteChannel}
+		 */
+		final @NotNull GatheringByteChannel channel;
+
+		Sink(@NotNull OutputStream out, @Nullable AutoCloseable resource) {
+			this.out = out;
+			this.resource = resource;
+			this.channel = new SinkChannel();
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			countWrite(1);
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte @NotNull [] b, int off, int len) throws IOException {
+			countWrite(len);
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			Counters counters = COUNTERS.get();
+			if (counters != null)
+				++counters.flushes;
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+			if (resource != null) {
+				try {
+					resource.close();
+				} catch (Exception e) {
+					throw new IOException(e);
+				}
+			}
+		}
+
+		private static void countWrite(long len) {
+			Counters counters = COUNTERS.get();
+			if (counters != null) {
+				++counters.writes;
+				counters.bytes += len;
+			}
+		}
+
+		/**
+		 * Gathering channel that writes every buffer to the sink. A gathering write counts as a single write
+		 */
+		private class SinkChannel implements GatheringByteChannel {
+			/**
+			 * Copy of buffers without an accessible array. {@link PromptByteChannel} writes under its lock, so it
+			 * is never used by two threads at the same time
+			 */
+			private final byte @NotNull [] scratch = new byte[8 * 1024];
+
+			@Override
+			public long write(@NotNull ByteBuffer @NotNull [] srcs, int offset, int length) throws IOException {
+				long written = 0;
+				for (int i = offset; i < offset + length; ++i)
+					written += writeBuffer(srcs[i]);
+				countWrite(written);
+				return written;
+			}
+
+			@Override
+			public long write(@NotNull ByteBuffer @NotNull [] srcs) throws IOException {
+				return write(srcs, 0, srcs.length);
+			}
+
+			@Override
+			public int write(@NotNull ByteBuffer src) throws IOException {
+				int written = writeBuffer(src);
+				countWrite(written);
+				return written;
+			}
+
+			private int writeBuffer(@NotNull ByteBuffer src) throws IOException {
+				int len = src.remaining();
+				if (src.hasArray()) {
+					out.write(src.array(), src.arrayOffset() + src.position(), len);
+					src.position(src.limit());
+					return len;
+				}
+
+				// direct or read-only buffer, copy it in chunks
+				while (src.hasRemaining()) {
+					int n = Math.min(src.remaining(), scratch.length);
+					src.get(scratch, 0, n);
+					out.write(scratch, 0, n);
+				}
+				return len;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() throws IOException {
+				Sink.this.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.benjaminguzman;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of publishing the printed lines to subscribers (see {@link PromptOutputStream#subscribe(LineSubscriber)}).
+ * <p>
+ * Subscribers just count the lines. {@link Drops#droppedLines} is the number of lines they missed in each
+ * iteration because they fell behind
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SubscriberBenchmark {
+	private static final byte[] LINE_BYTES = "2024-01-01 00:00:00 INFO Lorem ipsum dolor sit amet\n"
+		.getBytes(StandardCharsets.UTF_8);
+
+	@Param({"0", "1", "4"})
+	public int subscribers;
+
+	@Param({"null", "file"})
+	public String sink;
+
+	Sinks.Sink out;
+	PromptOutputStream promptOutputStream;
+	List<LineSubscription> subscriptions;
+	long lines_counted;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		out = Sinks.create(sink);
+		promptOutputStream = new PromptOutputStream(out).setPrompt(">>> ");
+		subscriptions = new ArrayList<>();
+		for (int i = 0; i < subscribers; ++i)
+			subscriptions.add(promptOutputStream.subscribe((buf, off, len) -> ++lines_counted));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException, InterruptedException {
+		promptOutputStream.close();
+		for (LineSubscription subscription : subscriptions)
+			subscription.awaitTermination(5_000);
+	}
+
+	/**
+	 * @return lines dropped so far by all the subscribers
+	 */
+	long droppedLines() {
+		long dropped = 0;
+		for (LineSubscription subscription : subscriptions)
+			dropped += subscription.getDroppedLines();
+		return dropped;
+	}
+
+	/**
+	 * Lines dropped by the subscribers during the iteration, reported by JMH next to the score
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Drops {
+		public long droppedLines;
+
+		private long dropped_before;
+
+		@Setup(Level.Iteration)
+		public void start(SubscriberBenchmark benchmark) {
+			droppedLines = 0;
+			dropped_before = benchmark.droppedLines();
+		}
+
+		@TearDown(Level.Iteration)
+		public void stop(SubscriberBenchmark benchmark) {
+			droppedLines = benchmark.droppedLines() - dropped_before;
+		}
+	}
+
+	@Benchmark
+	public void write(Sinks.Counters counters, Drops drops) throws IOException {
+		promptOutputStream.write(LINE_BYTES);
+	}
+}
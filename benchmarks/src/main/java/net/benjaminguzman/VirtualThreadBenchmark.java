@@ -0,0 +1,130 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.benjaminguzman;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many tasks writing a line each to the same stream, run by platform threads or by virtual threads.
+ * <p>
+ * While a thread holds the lock of {@link PromptOutputStream}, the others wait for it. With synchronized, virtual
+ * threads waiting for the lock would pin their carrier threads; with a ReentrantLock they are unmounted instead.
+ * <p>
+ * This only measures how long the tasks take, it doesn't show whether carriers are pinned (the sink never blocks).
+ * That is checked by {@code PromptOutputStreamTest.virtualThreads}, which writes to a blocked sink and times out if
+ * the carriers are pinned. Both need Java 21+.
+ * <p>
+ * Virtual threads are only available in Java 21+, but the project is compiled for Java 11, so by default only
+ * {@code executor=platform} is run. In Java 21+, run it with {@code -p executor=platform,virtual}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+	private static final byte[] LINE = "2024-01-01 00:00:00 INFO Lorem ipsum dolor sit amet\n"
+		.getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * platform or virtual (Java 21+)
+	 */
+	@Param({"platform"})
+	public String executor;
+
+	@Param({"null", "file"})
+	public String sink;
+
+	/**
+	 * Number of tasks submitted per operation
+	 */
+	@Param({"10000"})
+	public int tasks;
+
+	Sinks.Sink out;
+	PromptOutputStream promptOutputStream;
+	ExecutorService executorService;
+	Future<?>[] futures;
+
+	private final Callable<Void> writeLine = () -> {
+		promptOutputStream.write(LINE);
+		return null;
+	};
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ReflectiveOperationException {
+		out = Sinks.create(sink);
+		promptOutputStream = new PromptOutputStream(out).setPrompt(">>> ");
+		futures = new Future<?>[tasks];
+
+		if (executor.equals("virtual"))
+			try {
+				executorService = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+			} catch (NoSuchMethodException e) {
+				throw new UnsupportedOperationException("Virtual threads are only available in Java 21+", e);
+			}
+		else
+			executorService = Executors.newCachedThreadPool();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException, InterruptedException {
+		executorService.shutdown();
+		executorService.awaitTermination(30, TimeUnit.SECONDS);
+		out.close();
+	}
+
+	@Benchmark
+	public void write() throws InterruptedException, ExecutionException {
+		for (int i = 0; i < tasks; ++i)
+			futures[i] = executorService.submit(writeLine);
+
+		for (Future<?> future : futures)
+			future.get();
+	}
+}
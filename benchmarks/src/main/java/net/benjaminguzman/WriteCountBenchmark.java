@@ -0,0 +1,172 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts how many times the underlying output stream is written per printed line.
+ * <p>
+ * Compare the {@code writes} counter against the score (see {@link Sinks.Counters}): with a pre-built prompt frame,
+ * every line costs a single downstream write (the same as printing without {@link PromptOutputStream}). The
+ * {@code legacy*} benchmarks write the way {@link PromptOutputStream} used to: one write for the \r, one for the
+ * line, one for the status icon and one for the prompt
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WriteCountBenchmark {
+	private static final String LINE = "Lorem ipsum dolor sit amet, consectetur adipiscing elit";
+
+	Sinks.Sink out;
+	PrintStream rawPrintStream;
+	PrintStream promptPrintStream;
+	PromptOutputStream promptOutputStream;
+	PrintStream legacyPrintStream;
+	LegacyPromptOutputStream legacyOutputStream;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		out = Sinks.create("null");
+		rawPrintStream = new PrintStream(out, true);
+		promptOutputStream = new PromptOutputStream(out).setPrompt(">>> ").setStatusIcon("🧪");
+		promptPrintStream = new PrintStream(promptOutputStream, true);
+		legacyOutputStream = new LegacyPromptOutputStream(out, "🧪 ", ">>> ");
+		legacyPrintStream = new PrintStream(legacyOutputStream, true);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		out.close();
+	}
+
+	@Benchmark
+	public void printlnWithoutPrompt(Sinks.Counters counters) {
+		rawPrintStream.println(LINE);
+	}
+
+	@Benchmark
+	public void printlnWithPrompt(Sinks.Counters counters) {
+		promptPrintStream.println(LINE);
+	}
+
+	@Benchmark
+	public void legacyPrintln(Sinks.Counters counters) {
+		legacyPrintStream.println(LINE);
+	}
+
+	@Benchmark
+	public void printPrompt(Sinks.Counters counters) {
+		promptOutputStream.printPrompt();
+	}
+
+	@Benchmark
+	public void legacyPrintPrompt(Sinks.Counters counters) {
+		legacyOutputStream.printPrompt();
+	}
+
+	/**
+	 * The write sequence of {@link PromptOutputStream} before the prompt frame was pre-built: the \r, the bytes,
+	 * the status icon and the prompt are written separately, and the output is flushed after every new line
+	 */
+	static class LegacyPromptOutputStream extends OutputStream {
+		private final @NotNull OutputStream out;
+		private final byte @NotNull [] statusIcon;
+		private final byte @NotNull [] prompt;
+		private boolean should_delete_prompt;
+
+		LegacyPromptOutputStream(@NotNull OutputStream out, @NotNull String statusIcon, @NotNull String prompt) {
+			this.out = out;
+			this.statusIcon = statusIcon.getBytes(StandardCharsets.UTF_8);
+			this.prompt = prompt.getBytes(StandardCharsets.UTF_8);
+		}
+
+		void printPrompt() {
+			try {
+				synchronized (out) {
+					out.write('\r');
+					out.write(statusIcon);
+					out.write(prompt);
+					out.flush();
+				}
+			} catch (IOException ignored) {
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte @NotNull [] b, int off, int len) throws IOException {
+			synchronized (out) {
+				if (should_delete_prompt)
+					out.write('\r');
+
+				out.write(b, off, len);
+			}
+
+			if (b[off + len - 1] == '\n') {
+				synchronized (out) {
+					out.write(statusIcon);
+					out.write(prompt);
+					out.flush();
+					should_delete_prompt = true;
+				}
+			} else
+				should_delete_prompt = false;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			synchronized (out) {
+				out.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,583 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous version of {@link PromptOutputStream}.
+ * <p>
+ * Write methods copy the bytes into a pre-allocated ring buffer and return immediately, they never wait for the
+ * actual output (e.g. the terminal) unless the buffer is full. A single background thread (the drainer) takes
+ * everything that has been written since its last pass and writes it, as a single batch, to the
+ * {@link PromptOutputStream}. Hence, the prompt is written once per batch, after the last line.
+ * <p>
+ * Any number of threads can write at the same time (the buffer is multi-producer/single-consumer and lock-free).
+ * <p>
+ * Ordering guarantees:
+ * <p>
+ * - Bytes of a single write call are never interleaved with bytes of other calls, as long as the call writes at most
+ * {@link #getCapacity()} bytes. Bigger writes are split.
+ * <p>
+ * - Writes made by the same thread are written in the same order they were made.
+ * <p>
+ * - Writes made by different threads are written in the order they reserved space in the buffer. In particular,
+ * if a write call returns before another one starts, it is written first.
+ * <p>
+ * The prompt and status icon are still set in the {@link PromptOutputStream}. Calling
+ * {@link PromptOutputStream#printPrompt()} is fine, but lines that are still in the buffer will be written after
+ * the prompt.
+ * <p>
+ * The drainer is a daemon thread, so it doesn't prevent the JVM from exiting. Call {@link #flush()} or
+ * {@link #close()} if everything must be written before that.
+ * <p>
+ * The buffer never grows. When it is full, writers wait for the drainer by default. Use
+ * {@link #setOverflowPolicy(OverflowPolicy)} to drop output instead (e.g. if a slow terminal must never block the
+ * application).
+ */
+public class AsyncPromptOutputStream extends OutputStream {
+	/**
+	 * Default capacity of the buffer, in bytes
+	 */
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+	/**
+	 * End of the marker of collapsed lines (see {@link OverflowPolicy#collapse()}), after the number of lines
+	 */
+	private static final byte @NotNull [] LINE_DROPPED = " line dropped]\n".getBytes(StandardCharsets.UTF_8);
+
+	private static final byte @NotNull [] LINES_DROPPED = " lines dropped]\n".getBytes(StandardCharsets.UTF_8);
+
+	private final PromptOutputStream out;
+
+	/**
+	 * The ring buffer. Its length is a power of 2, so positions are mapped to indices with {@link #mask}
+	 */
+	private final byte @NotNull [] ring;
+
+	private final int mask;
+
+	/**
+	 * The drainer copies each batch here before writing it, so the space in the {@link #ring} can be reused (or
+	 * dropped, see {@link OverflowPolicy#dropOldest()}) while the batch is being written. It also joins the 2 parts
+	 * of a batch that wraps around the end of the ring
+	 */
+	private final byte @NotNull [] batch;
+
+	/**
+	 * The drainer writes the marker of collapsed lines here: a new line, "[", up to 19 digits and
+	 * {@link #LINES_DROPPED}
+	 */
+	private final byte @NotNull [] markerBuffer = new byte[2 + 19 + LINES_DROPPED.length];
+
+	/**
+	 * Position up to which producers have reserved space. Producers reserve space with a CAS on this
+	 */
+	private final AtomicLong claimed = new AtomicLong();
+
+	/**
+	 * Position up to which bytes have been copied into the ring and can be read by the drainer.
+	 * <p>
+	 * Producers commit in the same order they claimed, so everything before this position is valid
+	 */
+	private final AtomicLong committed = new AtomicLong();
+
+	/**
+	 * Position up to which the drainer has taken the bytes (or they have been dropped). Space before this position
+	 * can be reused.
+	 * <p>
+	 * The drainer copies the bytes and then takes them with a CAS. If the CAS fails, some of them were dropped (and
+	 * maybe overwritten) while they were being copied, so the copy is discarded
+	 */
+	private final AtomicLong consumed = new AtomicLong();
+
+	/**
+	 * Position up to which the drainer has written the bytes (or they have been dropped)
+	 */
+	private volatile long written;
+
+	private volatile @NotNull OverflowPolicy overflowPolicy = OverflowPolicy.block();
+
+	private final AtomicLong droppedBytes = new AtomicLong();
+
+	private final AtomicLong droppedLines = new AtomicLong();
+
+	/**
+	 * true if the last bytes dropped didn't end with a new line. That line is counted once, when it ends (with a
+	 * new line that is dropped or written) or when the stream is closed
+	 */
+	private final AtomicBoolean partial_line_dropped = new AtomicBoolean();
+
+	/**
+	 * Number of lines dropped since the drainer wrote the last marker (see {@link OverflowPolicy#collapse()})
+	 */
+	private final AtomicLong collapsedLines = new AtomicLong();
+
+	/**
+	 * Position where the first of the {@link #collapsedLines} would have been, i.e. where the marker must be
+	 * written. -1 if no lines have been dropped since the last marker
+	 */
+	private final AtomicLong collapseAt = new AtomicLong(-1);
+
+	/**
+	 * Tells if the drainer is (or is about to be) parked, so producers know they must unpark it
+	 */
+	private volatile boolean drainer_waiting;
+
+	/**
+	 * Set by the first call to {@link #close()}, so only that call closes the stream
+	 */
+	private final AtomicBoolean closing = new AtomicBoolean();
+
+	/**
+	 * Set by {@link #close()} once the lines dropped so far are counted, so the drainer writes their marker before
+	 * it stops
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * First exception thrown by the {@link PromptOutputStream} in the drainer. It is re-thrown to producers
+	 */
+	private volatile IOException failure;
+
+	private final Thread drainer;
+
+	/**
+	 * Creates a new object with a buffer of {@link #DEFAULT_CAPACITY} bytes
+	 *
+	 * @param out stream where the drainer writes the data
+	 */
+	public AsyncPromptOutputStream(@NotNull PromptOutputStream out) {
+		this(out, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new object
+	 *
+	 * @param out      stream where the drainer writes the data
+	 * @param capacity size of the buffer in bytes. It is rounded up to a power of 2
+	 */
+	public AsyncPromptOutputStream(@NotNull PromptOutputStream out, int capacity) {
+		if (capacity <= 0 || capacity > 1 << 30)
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+
+		this.out = out;
+		this.ring = new byte[capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1];
+		this.mask = ring.length - 1;
+		this.batch = new byte[ring.length];
+
+		this.drainer = new Thread(this::drain, "PromptOutput-drainer");
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+
+	/**
+	 * @return the size of the buffer in bytes
+	 */
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	/**
+	 * Set what writers do when the buffer is full
+	 *
+	 * @param policy the policy. By default, {@link OverflowPolicy#block()}
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public AsyncPromptOutputStream setOverflowPolicy(@NotNull OverflowPolicy policy) {
+		this.overflowPolicy = policy;
+		return this;
+	}
+
+	/**
+	 * @return number of bytes that have been dropped because the buffer was full
+	 */
+	public long getDroppedBytes() {
+		return droppedBytes.get();
+	}
+
+	/**
+	 * @return number of lines that have been dropped (completely or partially) because the buffer was full. A line
+	 * is counted once, no matter how many writes it was printed with
+	 */
+	public long getDroppedLines() {
+		return droppedLines.get();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		long start = claim(1);
+		if (start == -1) {
+			dropped(b == '\n' ? 1 : 0, 1, b == '\n');
+			return;
+		}
+
+		ring[(int) start & mask] = (byte) b;
+		commit(start, 1);
+		if (b == '\n' && partial_line_dropped.get())
+			lineWritten();
+	}
+
+	@Override
+	public void write(byte @NotNull [] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+
+		while (len > 0) {
+			int chunk = Math.min(len, ring.length);
+			long start = claim(chunk);
+			if (start == -1) { // the rest of the write is dropped
+				dropped(countLines(b, off, len), len, b[off + len - 1] == '\n');
+				return;
+			}
+
+			int index = (int) start & mask;
+			int first = Math.min(chunk, ring.length - index);
+			System.arraycopy(b, off, ring, index, first);
+			System.arraycopy(b, off + first, ring, 0, chunk - first); // part that wraps around, if any
+
+			commit(start, chunk);
+			if (partial_line_dropped.get() && NewLineScanner.indexOf(b, off, off + chunk) != -1)
+				lineWritten();
+			off += chunk;
+			len -= chunk;
+		}
+	}
+
+	/**
+	 * Waits until everything written before this call has been written to the {@link PromptOutputStream}, and then
+	 * flushes it
+	 */
+	@Override
+	public void flush() throws IOException {
+		long target = committed.get();
+		while (written < target) {
+			checkFailure();
+			LockSupport.unpark(drainer);
+			LockSupport.parkNanos(this, 50_000);
+		}
+
+		checkFailure();
+		out.flush();
+	}
+
+	/**
+	 * Waits until everything has been written, stops the drainer and closes the {@link PromptOutputStream}
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closing.compareAndSet(false, true))
+			return;
+
+		if (partial_line_dropped.getAndSet(false))
+			addDroppedLines(1); // the line never ended
+		closed = true;
+		LockSupport.unpark(drainer);
+		try {
+			drainer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		out.close();
+		checkFailure();
+	}
+
+	/**
+	 * Reserves space in the ring. If there is not enough, the {@link #overflowPolicy} decides whether to wait, to
+	 * make space by dropping old bytes, or to drop the write
+	 *
+	 * @param len number of bytes to reserve. Must not be greater than the capacity
+	 * @return the position where the reserved space starts, or -1 if the write must be dropped
+	 */
+	private long claim(int len) throws IOException {
+		OverflowPolicy policy = overflowPolicy;
+		long deadline = 0;
+		int spins = 0;
+		while (true) {
+			if (closed)
+				throw new IOException("Stream closed");
+			checkFailure();
+
+			long start = claimed.get();
+			if (start + len - consumed.get() > ring.length) { // buffer is full
+				switch (policy.kind) {
+					case DROP_NEWEST:
+					case COLLAPSE:
+						return -1;
+					case DROP_OLDEST:
+						if (dropOldest(start + len - ring.length))
+							continue;
+						break; // bytes that must be dropped are still being copied by other producers, wait for them
+					case BLOCK:
+						if (policy.timeout != 0) {
+							long now = System.nanoTime();
+							if (deadline == 0)
+								deadline = now + policy.timeout;
+							else if (now - deadline >= 0)
+								return -1;
+						}
+						break;
+				}
+
+				// wait for the drainer
+				LockSupport.unpark(drainer);
+				if (++spins < 100)
+					Thread.onSpinWait();
+				else
+					LockSupport.parkNanos(this, 50_000);
+				continue;
+			}
+
+			if (claimed.compareAndSet(start, start + len))
+				return start;
+		}
+	}
+
+	/**
+	 * Makes the bytes in the reserved space visible to the drainer.
+	 * <p>
+	 * Producers that claimed space before must commit first, this waits for them (they only need to copy their
+	 * bytes)
+	 *
+	 * @param start position where the reserved space starts
+	 * @param len   number of bytes reserved
+	 */
+	private void commit(long start, int len) {
+		int spins = 0;
+		while (committed.get() != start)
+			if (++spins < 100)
+				Thread.onSpinWait();
+			else
+				Thread.yield();
+
+		committed.set(start + len);
+		if (drainer_waiting)
+			LockSupport.unpark(drainer);
+	}
+
+	/**
+	 * Drops the oldest bytes in the buffer, so the space up to the given position can be reused. Bytes are dropped up
+	 * to the end of a line, if possible
+	 *
+	 * @param target position the space must be freed up to
+	 * @return false if the bytes haven't been committed yet (i.e. producers are still copying them)
+	 */
+	private boolean dropOldest(long target) {
+		long start = consumed.get();
+		if (start >= target)
+			return true; // the drainer (or another producer) made space meanwhile
+
+		long end = committed.get();
+		if (target > end)
+			return false;
+
+		// drop complete lines if possible. The bytes are read without any synchronization, but if anyone else
+		// advanced consumed meanwhile (so the bytes may have been overwritten), the CAS fails and this is retried
+		long new_start = target;
+		for (long i = target - 1; i < end; ++i)
+			if (ring[(int) i & mask] == '\n') {
+				new_start = i + 1;
+				break;
+			}
+
+		long lines = 0;
+		for (long i = start; i < new_start; ++i)
+			if (ring[(int) i & mask] == '\n')
+				++lines;
+
+		boolean ends_line = ring[(int) (new_start - 1) & mask] == '\n';
+		if (consumed.compareAndSet(start, new_start))
+			dropped(lines, new_start - start, ends_line);
+		return true;
+	}
+
+	/**
+	 * Counts dropped bytes
+	 *
+	 * @param lines     number of new lines in the dropped bytes
+	 * @param len       number of dropped bytes
+	 * @param ends_line true if the last dropped byte is a new line
+	 */
+	private void dropped(long lines, long len, boolean ends_line) {
+		droppedBytes.addAndGet(len);
+		// an incomplete line dropped before (if any) ends with the first of the new lines, so it is already counted
+		partial_line_dropped.set(!ends_line);
+		addDroppedLines(lines);
+	}
+
+	/**
+	 * Counts the incomplete line that was dropped before (if any), because a new line has just been written after
+	 * it
+	 */
+	private void lineWritten() {
+		if (partial_line_dropped.compareAndSet(true, false))
+			addDroppedLines(1);
+	}
+
+	private void addDroppedLines(long lines) {
+		if (lines == 0)
+			return;
+
+		droppedLines.addAndGet(lines);
+		if (overflowPolicy.kind == OverflowPolicy.Kind.COLLAPSE) {
+			collapseAt.compareAndSet(-1, claimed.get()); // everything claimed so far is older than the dropped bytes
+			collapsedLines.addAndGet(lines);
+			LockSupport.unpark(drainer); // in case it's idle, so it writes the marker
+		}
+	}
+
+	private static long countLines(byte @NotNull [] b, int off, int len) {
+		long lines = 0;
+		for (int i = off; i < off + len; ++i)
+			if (b[i] == '\n')
+				++lines;
+		return lines;
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure;
+		if (e != null)
+			throw new IOException("Drainer failed to write", e);
+	}
+
+	/**
+	 * Body of the drainer thread
+	 */
+	private void drain() {
+		boolean at_line_start = true; // true if the last byte written was a new line
+		while (true) {
+			long start = consumed.get();
+			long end = committed.get();
+
+			if (start == end) {
+				try {
+					long at = collapseAt.get();
+					if (failure == null && at != -1 && at <= end && writeCollapsedMarker(at_line_start))
+						at_line_start = true;
+				} catch (IOException e) {
+					failure = e;
+				}
+
+				written = end; // everything before end has been written or dropped
+				if (closed && claimed.get() == end)
+					return;
+
+				drainer_waiting = true;
+				if (committed.get() == end && !closed) // check again, a producer may have missed the flag
+					LockSupport.park(this);
+				drainer_waiting = false;
+				continue;
+			}
+
+			int index = (int) start & mask;
+			int len = (int) (end - start);
+			int first = Math.min(len, ring.length - index);
+			System.arraycopy(ring, index, batch, 0, first);
+			System.arraycopy(ring, 0, batch, first, len - first); // part that wraps around, if any
+			if (!consumed.compareAndSet(start, end))
+				continue; // some bytes were dropped while they were being copied
+
+			try {
+				if (failure == null)
+					at_line_start = writeBatch(start, len, at_line_start);
+			} catch (IOException e) {
+				failure = e;
+			}
+
+			written = end;
+		}
+	}
+
+	/**
+	 * Writes the batch in {@link #batch}, and the marker of collapsed lines if it must be written in the middle of
+	 * (or right after) it
+	 *
+	 * @param start         position where the batch starts
+	 * @param len           length of the batch
+	 * @param at_line_start true if the last byte written was a new line
+	 * @return true if the last byte written is a new line
+	 */
+	private boolean writeBatch(long start, int len, boolean at_line_start) throws IOException {
+		long at = collapseAt.get();
+		if (at == -1 || at - start > len) {
+			out.write(batch, 0, len);
+			return batch[len - 1] == '\n';
+		}
+
+		int split = (int) Math.max(0, at - start);
+		if (split > 0) {
+			out.write(batch, 0, split);
+			at_line_start = batch[split - 1] == '\n';
+		}
+		if (writeCollapsedMarker(at_line_start))
+			at_line_start = true;
+		if (split < len) {
+			out.write(batch, split, len - split);
+			at_line_start = batch[len - 1] == '\n';
+		}
+		return at_line_start;
+	}
+
+	/**
+	 * Writes a line telling how many lines were dropped since the last time this was called (see
+	 * {@link OverflowPolicy#collapse()})
+	 *
+	 * @param at_line_start true if the last byte written was a new line
+	 * @return true if the marker was written
+	 */
+	private boolean writeCollapsedMarker(boolean at_line_start) throws IOException {
+		collapseAt.set(-1); // lines dropped from now on get another marker
+		long lines = collapsedLines.getAndSet(0);
+		if (lines == 0)
+			return false;
+
+		// [\n] "[" lines " line(s) dropped]\n"
+		byte[] suffix = lines == 1 ? LINE_DROPPED : LINES_DROPPED;
+		int digits = 1;
+		for (long n = lines; n >= 10; n /= 10)
+			++digits;
+
+		int pos = 0;
+		if (!at_line_start)
+			markerBuffer[pos++] = '\n';
+		markerBuffer[pos++] = '[';
+		pos += digits;
+		for (int i = pos - 1; i >= pos - digits; --i, lines /= 10)
+			markerBuffer[i] = (byte) ('0' + lines % 10);
+		System.arraycopy(suffix, 0, markerBuffer, pos, suffix.length);
+		pos += suffix.length;
+		out.write(markerBuffer, 0, pos);
+		return true;
+	}
+}
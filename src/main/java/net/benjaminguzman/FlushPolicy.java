@@ -0,0 +1,264 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides when a {@link PromptOutputStream} flushes the underlying output stream.
+ * <p>
+ * By default, the underlying stream is flushed after every new line (see {@link #perLine()}). Under heavy output,
+ * that means a syscall per line (if the underlying stream is not buffered or {@link System#out} is used), so other
+ * policies are provided to flush less often.
+ * <p>
+ * Policies are stateful, so the same instance must not be used by more than one stream. All the static methods
+ * return a new instance.
+ * <p>
+ * {@link #shouldFlush(int, boolean)} and {@link #flushed()} are always called while holding the lock of the
+ * stream, so implementations don't need extra synchronization for them.
+ * <p>
+ * Note that {@link java.io.PrintStream} calls {@link PromptOutputStream#flush()} after every line if autoflush is
+ * enabled. That flush is always honored, so create the {@link java.io.PrintStream} without autoflush if you use
+ * a policy other than {@link #perLine()}, e.g. {@code new PrintStream(pos, false)}
+ *
+ * @see PromptOutputStream#setFlushPolicy(FlushPolicy)
+ */
+public abstract class FlushPolicy {
+	/**
+	 * Called after bytes have been written to the underlying stream
+	 *
+	 * @param len      number of bytes written (not including the prompt)
+	 * @param new_line true if the bytes completed at least one line
+	 * @return true if the underlying stream should be flushed now
+	 */
+	protected abstract boolean shouldFlush(int len, boolean new_line);
+
+	/**
+	 * Called after the underlying stream has been flushed, no matter the reason
+	 */
+	protected void flushed() {
+	}
+
+	/**
+	 * Called when this policy is set in a stream.
+	 * <p>
+	 * Policies that flush in the background (because a timer expired) should use the given stream to do so
+	 *
+	 * @param stream the stream this policy is used in
+	 */
+	protected void bind(@NotNull Flushable stream) {
+	}
+
+	/**
+	 * Flush after every write that completes at least one line. This is the default
+	 *
+	 * @return the policy
+	 */
+	public static @NotNull FlushPolicy perLine() {
+		return new PerLine();
+	}
+
+	/**
+	 * Flush once at least the given number of bytes have been written since the last flush.
+	 * <p>
+	 * Be careful, the prompt will not be shown until enough bytes are written or the stream is explicitly flushed
+	 *
+	 * @param bytes the number of bytes
+	 * @return the policy
+	 */
+	public static @NotNull FlushPolicy sizeThreshold(int bytes) {
+		if (bytes <= 0)
+			throw new IllegalArgumentException("bytes must be positive");
+
+		return new SizeThreshold(bytes);
+	}
+
+	/**
+	 * Flush at most once every interval.
+	 * <p>
+	 * The first write after a flush schedules a flush after the given interval, so the prompt is shown in (at most)
+	 * that time. Something like 16ms should be unnoticeable for a human
+	 *
+	 * @param interval the interval
+	 * @return the policy
+	 */
+	public static @NotNull FlushPolicy interval(@NotNull Duration interval) {
+		if (interval.isNegative() || interval.isZero())
+			throw new IllegalArgumentException("interval must be positive");
+
+		return new Interval(interval.toNanos());
+	}
+
+	/**
+	 * Flush only when nothing has been written for the given time
+	 * <p>
+	 * Under continuous output this will not flush at all, use {@link #interval(Duration)} if the prompt must be
+	 * shown within a bounded time
+	 *
+	 * @param idle the time without writes
+	 * @return the policy
+	 */
+	public static @NotNull FlushPolicy whenIdle(@NotNull Duration idle) {
+		if (idle.isNegative() || idle.isZero())
+			throw new IllegalArgumentException("idle time must be positive");
+
+		return new WhenIdle(idle.toNanos());
+	}
+
+	/**
+	 * Flushes the stream from the scheduler. Exceptions are ignored, as in {@link PromptOutputStream#printPrompt()}
+	 * <p>
+	 * A {@link PromptOutputStream} is not flushed if another thread holds its lock, the scheduler must not wait for
+	 * it (see {@link PromptScheduler})
+	 *
+	 * @return false if the stream was busy, and it should be flushed later
+	 */
+	private static boolean flushQuietly(@NotNull Flushable stream) {
+		try {
+			if (stream instanceof PromptOutputStream)
+				return ((PromptOutputStream) stream).tryFlush();
+			stream.flush();
+		} catch (IOException ignored) {
+		} // just ignore the exception 🤞 it is nothing terribly bad
+		return true;
+	}
+
+	private static final class PerLine extends FlushPolicy {
+		@Override
+		protected boolean shouldFlush(int len, boolean new_line) {
+			return new_line;
+		}
+	}
+
+	private static final class SizeThreshold extends FlushPolicy {
+		private final int threshold;
+
+		/**
+		 * Number of bytes written since the last flush
+		 */
+		private long pending;
+
+		private SizeThreshold(int threshold) {
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected boolean shouldFlush(int len, boolean new_line) {
+			pending += len;
+			return pending >= threshold;
+		}
+
+		@Override
+		protected void flushed() {
+			pending = 0;
+		}
+	}
+
+	private static final class Interval extends FlushPolicy {
+		private final long interval;
+
+		/**
+		 * Tells if there is a flush scheduled. The flag is cleared by the scheduler, that's why this is atomic
+		 */
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		private Flushable stream;
+
+		private Interval(long interval) {
+			this.interval = interval;
+		}
+
+		@Override
+		protected void bind(@NotNull Flushable stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		protected boolean shouldFlush(int len, boolean new_line) {
+			if (scheduled.compareAndSet(false, true))
+				PromptScheduler.schedule(this::run, interval);
+
+			return false;
+		}
+
+		private void run() {
+			scheduled.set(false);
+			if (!flushQuietly(stream) && scheduled.compareAndSet(false, true))
+				PromptScheduler.schedule(this::run, PromptScheduler.RETRY_DELAY);
+		}
+	}
+
+	private static final class WhenIdle extends FlushPolicy {
+		private final long idle;
+
+		/**
+		 * Tells if there is a check scheduled. The flag is cleared by the scheduler, that's why this is atomic
+		 */
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		/**
+		 * The time (as given by {@link System#nanoTime()}) of the last write. Read by the scheduler
+		 */
+		private volatile long last_write;
+
+		private Flushable stream;
+
+		private WhenIdle(long idle) {
+			this.idle = idle;
+		}
+
+		@Override
+		protected void bind(@NotNull Flushable stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		protected boolean shouldFlush(int len, boolean new_line) {
+			last_write = System.nanoTime();
+			if (scheduled.compareAndSet(false, true))
+				PromptScheduler.schedule(this::run, idle);
+
+			return false;
+		}
+
+		private void run() {
+			long elapsed = System.nanoTime() - last_write;
+			if (elapsed < idle) { // still writing, check again later
+				PromptScheduler.schedule(this::run, idle - elapsed);
+				return;
+			}
+
+			scheduled.set(false);
+			if (!flushQuietly(stream) && scheduled.compareAndSet(false, true))
+				PromptScheduler.schedule(this::run, PromptScheduler.RETRY_DELAY);
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Groups the writes of concurrent threads, so they are written (and flushed) together, the way database log writers
+ * do (group commit).
+ * <p>
+ * Writers copy their bytes into a shared buffer. If nobody is writing to the {@link PromptOutputStream}, the writer
+ * becomes the leader: it takes everything in the buffer and writes it with a single call (so the prompt is written
+ * once, at the end of the batch, and the output is flushed once). Meanwhile, other writers keep filling the buffer
+ * (which will be the next batch) and wait for the leader to write their bytes. When the leader finishes, it takes
+ * the next batch, if any.
+ * <p>
+ * Thus, when there is no contention, every write is written right away, and when there is contention, the number
+ * of writes (and flushes) to the underlying stream decreases instead of every thread waiting for its own.
+ * <p>
+ * Like with {@link PromptOutputStream}, when a write method returns, the bytes have been written (and flushed,
+ * depending on the {@link FlushPolicy}).
+ * <p>
+ * This class is thread-safe.
+ */
+public class GroupCommitOutputStream extends OutputStream {
+	private final @NotNull PromptOutputStream out;
+
+	/**
+	 * Guards the buffers and positions below. It is only held to copy bytes, never while writing to {@link #out}
+	 */
+	private final @NotNull ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Signaled when a batch has been written
+	 */
+	private final @NotNull Condition committedCondition = lock.newCondition();
+
+	/**
+	 * Bytes waiting to be written (the next batch)
+	 */
+	private byte @NotNull [] staging = new byte[8192];
+
+	private int staged;
+
+	/**
+	 * Buffer of the previous batch, it is reused as the staging buffer once the current batch has been written
+	 */
+	private byte @NotNull [] spare = new byte[8192];
+
+	/**
+	 * Total number of bytes that have been copied into the staging buffer
+	 */
+	private long appended;
+
+	/**
+	 * Total number of bytes that have been written to {@link #out}
+	 */
+	private long committed;
+
+	/**
+	 * true while a thread (the leader) is writing a batch
+	 */
+	private boolean leader_active;
+
+	/**
+	 * Exception thrown while writing a batch. Once a batch fails, the stream is broken
+	 */
+	private @Nullable IOException failure;
+
+	private boolean closed;
+
+	/**
+	 * Creates a new object
+	 *
+	 * @param out stream where batches are written
+	 */
+	public GroupCommitOutputStream(@NotNull PromptOutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		lock.lock();
+		try {
+			ensureOpen();
+			reserve(1);
+			staging[staged++] = (byte) b;
+			++appended;
+			commit(appended);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void write(byte @NotNull [] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte @NotNull [] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (len == 0)
+			return;
+
+		lock.lock();
+		try {
+			ensureOpen();
+			reserve(len);
+			System.arraycopy(b, off, staging, staged, len);
+			staged += len;
+			appended += len;
+			commit(appended);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Makes sure the staging buffer has space for len more bytes
+	 * <p>
+	 * Caller must hold {@link #lock}
+	 */
+	private void reserve(int len) {
+		if (staged + len > staging.length)
+			staging = Arrays.copyOf(staging, Math.max(staging.length << 1, staged + len));
+	}
+
+	/**
+	 * Returns once everything up to the given position has been written, either by this thread (as the leader) or
+	 * by another one
+	 * <p>
+	 * Caller must hold {@link #lock}
+	 */
+	private void commit(long position) throws IOException {
+		while (committed < position) {
+			if (failure != null)
+				throw failure;
+
+			if (!leader_active) {
+				writeBatches(position);
+				continue;
+			}
+
+			try {
+				committedCondition.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the batch to be written");
+			}
+		}
+	}
+
+	/**
+	 * Becomes the leader and writes batches until the given position has been written. After that, one of the
+	 * waiting writers (if any) becomes the leader, so no thread keeps writing for everyone else forever
+	 * <p>
+	 * Caller must hold {@link #lock}. It is released while a batch is being written
+	 */
+	private void writeBatches(long position) throws IOException {
+		leader_active = true;
+		try {
+			while (committed < position) {
+				// take the batch, writers can keep filling the other buffer meanwhile
+				byte[] batch = staging;
+				int batch_len = staged;
+				long batch_end = appended;
+				staging = spare;
+				staged = 0;
+
+				lock.unlock();
+				try {
+					out.write(batch, 0, batch_len);
+				} catch (IOException e) {
+					failure = e;
+					throw e;
+				} finally {
+					lock.lock();
+					spare = batch;
+				}
+
+				committed = batch_end;
+				committedCondition.signalAll();
+			}
+		} finally {
+			leader_active = false;
+			committedCondition.signalAll(); // a follower may need to become the leader (or see the failure)
+		}
+	}
+
+	/**
+	 * Waits until everything written so far has been written to the {@link PromptOutputStream}, and flushes it
+	 */
+	@Override
+	public void flush() throws IOException {
+		lock.lock();
+		try {
+			commit(appended);
+		} finally {
+			lock.unlock();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed)
+				return;
+			closed = true;
+			commit(appended);
+		} finally {
+			lock.unlock();
+		}
+		out.close();
+	}
+
+	/**
+	 * Caller must hold {@link #lock}
+	 */
+	private void ensureOpen() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (failure != null)
+			throw failure;
+	}
+}
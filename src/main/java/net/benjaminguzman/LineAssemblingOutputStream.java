@@ -0,0 +1,310 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Assembles lines in a buffer per thread, so fragments of a line printed by different threads are never
+ * interleaved.
+ * <p>
+ * Writes that don't complete a line are kept in the buffer of the calling thread, without taking the lock of the
+ * {@link PromptOutputStream}. Once a thread writes a new line, its complete lines are written to the
+ * {@link PromptOutputStream} with a single call, and anything after the last new line stays in the buffer.
+ * <p>
+ * To use it, simply do something like this: {@code
+ * PromptOutputStream pos = new PromptOutputStream(System.out);
+ * System.setOut(new PrintStream(new LineAssemblingOutputStream(pos), false));
+ * }
+ * <p>
+ * Note the {@link java.io.PrintStream} is created without autoflush. With autoflush, it calls {@link #flush()}
+ * after every write, and therefore incomplete lines would be written right away. The {@link PromptOutputStream}
+ * still flushes complete lines according to its {@link FlushPolicy}.
+ * <p>
+ * Incomplete lines are written when:
+ * <p>
+ * - The thread that wrote them calls {@link #flush()} (e.g. {@code print("Name: ")} followed by
+ * {@code System.out.flush()}).
+ * <p>
+ * - Its buffer exceeds {@link #MAX_LINE_LENGTH} bytes.
+ * <p>
+ * - The stream is closed.
+ * <p>
+ * - The thread that wrote them is dead and has been garbage collected. Don't rely on this, call {@link #flush()}
+ * before a thread finishes. The threads only reference this stream weakly (e.g. pooled threads don't keep it
+ * alive), so if it is garbage collected before the thread, its incomplete line is lost.
+ * <p>
+ * This class is thread-safe.
+ */
+public class LineAssemblingOutputStream extends OutputStream {
+	/**
+	 * Max bytes kept in the buffer of a thread. If a line is longer, it is written in parts (and may be interleaved)
+	 */
+	public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+	/**
+	 * Lazy holder, the cleaner (and its thread) is created the first time a thread writes to any stream
+	 */
+	private static final class Holder {
+		private static final Cleaner CLEANER = Cleaner.create(runnable -> {
+			Thread thread = new Thread(runnable, "PromptOutput-cleaner");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private final @NotNull PromptOutputStream out;
+
+	private final @NotNull ThreadLocal<LineBuffer> threadBuffer = ThreadLocal.withInitial(this::newBuffer);
+
+	/**
+	 * Buffers of all the threads, so they can be written when the stream is closed
+	 */
+	private final @NotNull Set<LineBuffer> buffers = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean closed;
+
+	/**
+	 * Incomplete line written by a thread.
+	 * <p>
+	 * Only the owner thread writes to the buffer, but other threads may write its contents to the output (see
+	 * {@link #close()}), so it is guarded by its own lock, which is uncontended most of the time
+	 */
+	private static final class LineBuffer {
+		/**
+		 * Initial size of the buffer. It goes back to this size after a line longer than {@link #MAX_RETAINED_SIZE}
+		 */
+		static final int INITIAL_SIZE = 128;
+
+		/**
+		 * Max size of the buffer that is kept once its line is written
+		 */
+		static final int MAX_RETAINED_SIZE = 8 * 1024;
+
+		final @NotNull ReentrantLock lock = new ReentrantLock();
+
+		byte @NotNull [] bytes = new byte[INITIAL_SIZE];
+
+		int count;
+
+		/**
+		 * Writes the incomplete line when the thread is garbage collected (or the stream is closed)
+		 */
+		Cleaner.@Nullable Cleanable cleanable;
+
+		void append(byte @NotNull [] b, int off, int len) {
+			if (count + len > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, count + len));
+			System.arraycopy(b, off, bytes, count, len);
+			count += len;
+		}
+
+		/**
+		 * Empties the buffer, and shrinks it if a long line made it grow
+		 */
+		void clear() {
+			count = 0;
+			if (bytes.length > MAX_RETAINED_SIZE)
+				bytes = new byte[INITIAL_SIZE];
+		}
+	}
+
+	/**
+	 * Writes the incomplete line of a thread that has been garbage collected
+	 */
+	private static final class ThreadExitAction implements Runnable {
+		// must not reference the thread, otherwise it'd never be garbage collected. The cleaner keeps the action
+		// until the thread is gone, so the stream is referenced weakly, otherwise a thread pool would keep it alive
+		private final @NotNull WeakReference<LineAssemblingOutputStream> streamReference;
+		private final @NotNull LineBuffer buffer;
+
+		ThreadExitAction(@NotNull LineAssemblingOutputStream stream, @NotNull LineBuffer buffer) {
+			this.streamReference = new WeakReference<>(stream);
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void run() {
+			LineAssemblingOutputStream stream = streamReference.get();
+			if (stream == null) // nobody can write to it anymore
+				return;
+
+			stream.buffers.remove(buffer);
+			try {
+				stream.writePartial(buffer);
+			} catch (IOException ignored) {
+			} // just ignore the exception 🤞 it is nothing terribly bad
+		}
+	}
+
+	/**
+	 * Creates a new object
+	 *
+	 * @param out stream where complete lines are written
+	 */
+	public LineAssemblingOutputStream(@NotNull PromptOutputStream out) {
+		this.out = out;
+	}
+
+	private @NotNull LineBuffer newBuffer() {
+		LineBuffer buffer = new LineBuffer();
+		buffer.cleanable = Holder.CLEANER.register(Thread.currentThread(), new ThreadExitAction(this, buffer));
+		buffers.add(buffer);
+		return buffer;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		LineBuffer buffer = threadBuffer.get();
+		buffer.lock.lock();
+		try {
+			ensureOpen(); // again, close() may have written the buffer in the meantime
+			if (buffer.count == buffer.bytes.length)
+				buffer.bytes = Arrays.copyOf(buffer.bytes, buffer.bytes.length << 1);
+			buffer.bytes[buffer.count++] = (byte) b;
+
+			if (b == '\n') {
+				out.write(buffer.bytes, 0, buffer.count, true, true);
+				buffer.clear();
+			} else if (buffer.count > MAX_LINE_LENGTH) {
+				writePartial(buffer);
+			}
+		} finally {
+			buffer.lock.unlock();
+		}
+	}
+
+	@Override
+	public void write(byte @NotNull [] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte @NotNull [] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		ensureOpen();
+		if (len == 0)
+			return;
+
+		int last_new_line = NewLineScanner.lastIndexOf(b, off, off + len);
+		LineBuffer buffer = threadBuffer.get();
+		buffer.lock.lock();
+		try {
+			ensureOpen(); // again, close() may have written the buffer in the meantime
+			if (last_new_line == -1) { // the line is not complete yet
+				buffer.append(b, off, len);
+				if (buffer.count > MAX_LINE_LENGTH)
+					writePartial(buffer);
+				return;
+			}
+
+			int lines_end = last_new_line + 1;
+			if (buffer.count == 0) {
+				out.write(b, off, lines_end - off, true, true); // no need to copy complete lines
+			} else if (buffer.count + lines_end - off > MAX_LINE_LENGTH) {
+				// too much to copy, write the incomplete line and then the lines (they may be interleaved)
+				writePartial(buffer);
+				out.write(b, off, lines_end - off, true, true);
+			} else {
+				buffer.append(b, off, lines_end - off);
+				out.write(buffer.bytes, 0, buffer.count, true, true);
+				buffer.clear();
+			}
+
+			// keep the beginning of the next line
+			buffer.append(b, lines_end, off + len - lines_end);
+			if (buffer.count > MAX_LINE_LENGTH)
+				writePartial(buffer);
+		} finally {
+			buffer.lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the incomplete line of the given buffer
+	 */
+	private void writePartial(@NotNull LineBuffer buffer) throws IOException {
+		buffer.lock.lock();
+		try {
+			out.write(buffer.bytes, 0, buffer.count, false, false);
+			buffer.clear();
+		} finally {
+			buffer.lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the incomplete line of the calling thread (if any), and flushes the {@link PromptOutputStream}
+	 */
+	@Override
+	public void flush() throws IOException {
+		writePartial(threadBuffer.get());
+		out.flush();
+	}
+
+	/**
+	 * Writes the incomplete lines of all threads and closes the {@link PromptOutputStream}
+	 * <p>
+	 * Each buffer is written while holding its lock, and writes check {@link #closed} again once they hold it, so
+	 * nothing written concurrently is left in a buffer. The buffers are also unregistered from the cleaner, so the
+	 * cleaner doesn't keep them until every thread that wrote to this stream is gone
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		for (LineBuffer buffer : buffers) {
+			buffer.lock.lock();
+			try {
+				writePartial(buffer);
+				Cleaner.Cleanable cleanable = buffer.cleanable;
+				buffer.cleanable = null; // the thread keeps the buffer
+				if (cleanable != null)
+					cleanable.clean(); // removes the buffer (there is nothing else to write)
+			} finally {
+				buffer.lock.unlock();
+			}
+		}
+		threadBuffer.remove();
+		out.close();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+	}
+}
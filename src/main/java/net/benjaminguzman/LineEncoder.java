@@ -0,0 +1,190 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encodes chars into a reusable buffer and writes the resulting bytes to a {@link PromptOutputStream}.
+ * <p>
+ * Whether the text ends with a new line is decided by looking at the chars, so the encoded bytes don't need to be
+ * scanned again.
+ * <p>
+ * Chars are accumulated with the append methods and written with {@link #drain()}. Everything appended between two
+ * calls to {@link #drain()} is written with a single call to the output stream, unless it doesn't fit in the
+ * buffer.
+ * <p>
+ * This class is not thread-safe. Callers should hold {@link PromptOutputStream#lock}
+ */
+final class LineEncoder {
+	/**
+	 * Max number of chars copied from the input before encoding them
+	 */
+	private static final int CHARS_CAPACITY = 1024;
+
+	/**
+	 * Max number of encoded bytes kept before writing them
+	 */
+	private static final int BYTES_CAPACITY = 8192;
+
+	private final @NotNull PromptOutputStream out;
+
+	private final @NotNull CharsetEncoder encoder;
+
+	/**
+	 * Chars waiting to be encoded. It is always in "write mode", and it may keep a high surrogate whose low surrogate
+	 * has not been appended yet
+	 */
+	private final @NotNull CharBuffer chars = CharBuffer.allocate(CHARS_CAPACITY);
+
+	/**
+	 * Encoded bytes waiting to be written
+	 */
+	private final @NotNull ByteBuffer bytes = ByteBuffer.allocate(BYTES_CAPACITY);
+
+	/**
+	 * true if the last appended char is a new line
+	 */
+	private boolean ends_line;
+
+	/**
+	 * true if there is a new line in the chars appended since the last call to {@link #drain()}
+	 */
+	private boolean has_new_line;
+
+	LineEncoder(@NotNull PromptOutputStream out, @NotNull Charset charset) {
+		this.out = out;
+		this.encoder = charset.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	void append(char c) throws IOException {
+		chars.put(c);
+		encode();
+		ends_line = c == '\n';
+	}
+
+	void append(char @NotNull [] cbuf, int off, int len) throws IOException {
+		int end = off + len;
+		while (off < end) {
+			int n = Math.min(end - off, chars.remaining());
+			chars.put(cbuf, off, n);
+			off += n;
+			encode();
+		}
+
+		if (len > 0)
+			ends_line = cbuf[end - 1] == '\n';
+	}
+
+	void append(@NotNull CharSequence csq, int start, int end) throws IOException {
+		if (start == end)
+			return;
+
+		ends_line = csq.charAt(end - 1) == '\n';
+		char[] array = chars.array();
+		while (start < end) {
+			int n = Math.min(end - start, chars.remaining());
+			int position = chars.position();
+
+			// copy the chars without creating intermediate objects (CharBuffer.put(String) would be fine too, but
+			// it doesn't know about StringBuilder)
+			if (csq instanceof String)
+				((String) csq).getChars(start, start + n, array, position);
+			else if (csq instanceof StringBuilder)
+				((StringBuilder) csq).getChars(start, start + n, array, position);
+			else
+				for (int i = 0; i < n; ++i)
+					array[position + i] = csq.charAt(start + i);
+
+			chars.position(position + n);
+			start += n;
+			encode();
+		}
+	}
+
+	/**
+	 * Encodes the chars in {@link #chars}. If {@link #bytes} gets full, it is written to the output stream
+	 */
+	private void encode() throws IOException {
+		chars.flip();
+		if (!has_new_line)
+			has_new_line = containsNewLine();
+
+		while (encoder.encode(chars, bytes, false).isOverflow())
+			write(false);
+
+		chars.compact(); // keep a dangling high surrogate, if any
+	}
+
+	private boolean containsNewLine() {
+		char[] array = chars.array();
+		for (int i = chars.position(), limit = chars.limit(); i < limit; ++i)
+			if (array[i] == '\n')
+				return true;
+		return false;
+	}
+
+	/**
+	 * Writes the encoded bytes to the output stream. The prompt is printed if the last appended char is a new line
+	 */
+	void drain() throws IOException {
+		write(ends_line);
+		has_new_line = false;
+	}
+
+	/**
+	 * Encodes any dangling char (e.g. a lone high surrogate) and writes everything to the output stream.
+	 * <p>
+	 * After calling this method, the encoder is reset, so it can be used again
+	 */
+	void finish() throws IOException {
+		chars.flip();
+		while (encoder.encode(chars, bytes, true).isOverflow())
+			write(false);
+		while (encoder.flush(bytes).isOverflow())
+			write(false);
+		chars.clear();
+		encoder.reset();
+		drain();
+	}
+
+	private void write(boolean ends_line) throws IOException {
+		if (bytes.position() == 0)
+			return;
+
+		out.write(bytes.array(), 0, bytes.position(), ends_line, has_new_line);
+		bytes.clear();
+	}
+}
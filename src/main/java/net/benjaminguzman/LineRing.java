@@ -0,0 +1,263 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Pre-allocated ring of lines, through which a {@link PromptOutputStream} publishes the lines it prints to its
+ * {@link LineSubscription}s.
+ * <p>
+ * There is a single publisher (the stream, while holding its lock). Each slot has its own buffer, which is reused
+ * (and only grows if a line doesn't fit), so publishing a line is just a copy.
+ * <p>
+ * The publisher never waits for subscribers, and it doesn't even look at their cursors: it just overwrites the
+ * oldest slot. Subscribers copy the line out of the slot and then check the sequence of the slot again, so if the
+ * slot was overwritten while they copied it, they know it. When a subscriber gets to a slot that has been
+ * overwritten, it skips to the oldest line still in the ring, and the skipped lines are counted as dropped
+ */
+final class LineRing {
+	/**
+	 * Default number of slots
+	 */
+	static final int DEFAULT_SIZE = 1024;
+
+	/**
+	 * Max length of an incomplete line kept until its new line is printed. If a line is longer, it is published in
+	 * parts
+	 */
+	static final int MAX_LINE_LENGTH = 64 * 1024;
+
+	/**
+	 * Initial size of the buffer of each slot
+	 */
+	static final int SLOT_SIZE = 128;
+
+	private static final @NotNull LineSubscription @NotNull [] NO_SUBSCRIPTIONS = new LineSubscription[0];
+
+	static final class Slot {
+		/**
+		 * Sequence of the line in the slot, or -1 while it is being written. Written after the buffer and the
+		 * length, so subscribers read it before and after copying them to know they got the whole line
+		 */
+		volatile long sequence = -1;
+
+		volatile byte @NotNull [] data = new byte[SLOT_SIZE];
+
+		volatile int length;
+	}
+
+	private final @NotNull Slot @NotNull [] slots;
+
+	private final int mask;
+
+	/**
+	 * Sequence of the next line to publish, i.e. number of lines published. Only the publisher changes it
+	 */
+	private volatile long cursor;
+
+	private final @NotNull AtomicReference<LineSubscription[]> subscriptions = new AtomicReference<>(NO_SUBSCRIPTIONS);
+
+	/**
+	 * The incomplete line printed so far, if any
+	 */
+	private byte @NotNull [] partial = new byte[SLOT_SIZE];
+
+	private int partial_len;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param size number of slots. It is rounded up to a power of 2
+	 */
+	LineRing(int size) {
+		if (size <= 0 || size > 1 << 20)
+			throw new IllegalArgumentException("size must be between 1 and 2^20");
+
+		this.slots = new Slot[size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1];
+		for (int i = 0; i < slots.length; ++i)
+			slots[i] = new Slot();
+		this.mask = slots.length - 1;
+	}
+
+	int size() {
+		return slots.length;
+	}
+
+	long cursor() {
+		return cursor;
+	}
+
+	@NotNull Slot slot(long sequence) {
+		return slots[(int) sequence & mask];
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Creates a subscription (and starts its thread). It gets the lines published after this call
+	 * <p>
+	 * Caller must hold the lock of the stream, so the cursor doesn't change
+	 */
+	@NotNull LineSubscription subscribe(
+		@NotNull LineSubscriber subscriber,
+		@NotNull Consumer<? super RuntimeException> errorHandler
+	) {
+		LineSubscription subscription = new LineSubscription(this, subscriber, errorHandler, cursor);
+		subscriptions.updateAndGet(current -> {
+			LineSubscription[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = subscription;
+			return updated;
+		});
+		subscription.start();
+		return subscription;
+	}
+
+	/**
+	 * Called by the thread of the subscription when it stops. Until then, the subscription is still taken into
+	 * account, because the thread may be reading a line
+	 */
+	void unsubscribe(@NotNull LineSubscription subscription) {
+		subscriptions.updateAndGet(current -> {
+			int i = Arrays.asList(current).indexOf(subscription);
+			if (i == -1)
+				return current;
+
+			LineSubscription[] updated = new LineSubscription[current.length - 1];
+			System.arraycopy(current, 0, updated, 0, i);
+			System.arraycopy(current, i + 1, updated, i, updated.length - i);
+			return updated;
+		});
+	}
+
+	/**
+	 * Publishes every line completed by the given byte, or keeps it as part of the incomplete line
+	 * <p>
+	 * Caller must hold the lock of the stream
+	 */
+	void publish(int b) {
+		if (subscriptions.get().length == 0) {
+			partial_len = 0;
+			return;
+		}
+
+		if (b == '\n' || partial_len == MAX_LINE_LENGTH) {
+			publishLine(partial, 0, partial_len);
+			partial_len = 0;
+			if (b == '\n')
+				return;
+		}
+
+		if (partial.length == partial_len)
+			partial = Arrays.copyOf(partial, Math.min(partial.length * 2, MAX_LINE_LENGTH));
+		partial[partial_len++] = (byte) b;
+	}
+
+	/**
+	 * Publishes every line completed by the given bytes, and keeps what is after the last new line as the
+	 * incomplete line
+	 * <p>
+	 * Caller must hold the lock of the stream
+	 */
+	void publish(byte @NotNull [] b, int off, int len) {
+		if (subscriptions.get().length == 0) { // nobody is listening, don't even look for new lines
+			partial_len = 0;
+			return;
+		}
+
+		int end = off + len;
+		while (off < end) {
+			int new_line = NewLineScanner.indexOf(b, off, end);
+			if (new_line == -1) {
+				append(b, off, end - off);
+				return;
+			}
+
+			if (partial_len == 0) {
+				publishLine(b, off, new_line - off);
+			} else {
+				append(b, off, new_line - off);
+				publishLine(partial, 0, partial_len);
+				partial_len = 0;
+			}
+			off = new_line + 1;
+		}
+	}
+
+	/**
+	 * Adds the bytes to the incomplete line. If it gets longer than {@link #MAX_LINE_LENGTH}, it is published
+	 */
+	private void append(byte @NotNull [] b, int off, int len) {
+		while (partial_len + len > MAX_LINE_LENGTH) {
+			int n = MAX_LINE_LENGTH - partial_len;
+			append(b, off, n);
+			publishLine(partial, 0, partial_len);
+			partial_len = 0;
+			off += n;
+			len -= n;
+		}
+
+		if (partial.length < partial_len + len)
+			partial = Arrays.copyOf(partial, Math.min(Math.max(partial_len + len, partial.length * 2), MAX_LINE_LENGTH));
+		System.arraycopy(b, off, partial, partial_len, len);
+		partial_len += len;
+	}
+
+	private void publishLine(byte @NotNull [] b, int off, int len) {
+		long sequence = cursor;
+		Slot slot = slot(sequence);
+
+		slot.sequence = -1; // subscribers that are copying the previous line will know it was overwritten
+		VarHandle.storeStoreFence(); // the line must not be written before the slot is marked
+
+		byte[] data = slot.data;
+		if (data.length < len)
+			slot.data = data = new byte[Math.min(Math.max(len, data.length * 2), MAX_LINE_LENGTH)];
+		System.arraycopy(b, off, data, 0, len);
+		slot.length = len;
+		slot.sequence = sequence;
+		cursor = sequence + 1;
+
+		for (LineSubscription subscription : subscriptions.get())
+			subscription.wake();
+	}
+
+	/**
+	 * Stops the subscriptions once they have read every line
+	 */
+	void close() {
+		closed = true;
+		for (LineSubscription subscription : subscriptions.get())
+			subscription.wake();
+	}
+}
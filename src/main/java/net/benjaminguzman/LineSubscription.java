@@ -0,0 +1,231 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Subscription to the lines printed to a {@link PromptOutputStream}, created with
+ * {@link PromptOutputStream#subscribe(LineSubscriber)}.
+ * <p>
+ * Each subscription has its own thread, which calls the {@link LineSubscriber} for every line. The stream never
+ * waits for it, so a slow subscriber doesn't slow down the output, but if it falls behind more lines than the
+ * ring can hold, it misses some of them. {@link #getLag()} and {@link #getDroppedLines()} tell how far behind it
+ * is, and how many lines it has missed
+ * <p>
+ * This class is thread-safe.
+ */
+public final class LineSubscription implements AutoCloseable {
+	private final @NotNull LineRing ring;
+
+	private final @NotNull LineSubscriber subscriber;
+
+	private final @NotNull Consumer<? super RuntimeException> errorHandler;
+
+	private final @NotNull Thread thread;
+
+	/**
+	 * Sequence of the next line to read (or the line being read). Only the thread of the subscription changes it
+	 */
+	private volatile long next;
+
+	/**
+	 * Copy of the line passed to the subscriber. Only the thread of the subscription uses it
+	 */
+	private byte @NotNull [] line = new byte[LineRing.SLOT_SIZE];
+
+	private volatile long delivered_lines;
+
+	private volatile long dropped_lines;
+
+	private volatile long failed_lines;
+
+	/**
+	 * Tells if the thread is (or is about to be) parked, so the publisher knows it must unpark it
+	 */
+	private volatile boolean waiting;
+
+	private volatile boolean closed;
+
+	LineSubscription(
+		@NotNull LineRing ring,
+		@NotNull LineSubscriber subscriber,
+		@NotNull Consumer<? super RuntimeException> errorHandler,
+		long next
+	) {
+		this.ring = ring;
+		this.subscriber = subscriber;
+		this.errorHandler = errorHandler;
+		this.next = next;
+		this.thread = new Thread(this::run, "PromptOutput-subscriber");
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * @return number of lines that have been printed but not read by the subscriber yet
+	 */
+	public long getLag() {
+		return Math.max(0, ring.cursor() - next);
+	}
+
+	/**
+	 * @return number of lines read by the subscriber
+	 */
+	public long getDeliveredLines() {
+		return delivered_lines;
+	}
+
+	/**
+	 * @return number of lines the subscriber missed because it was too far behind
+	 */
+	public long getDroppedLines() {
+		return dropped_lines;
+	}
+
+	/**
+	 * @return number of lines for which the subscriber threw an exception. They are counted as delivered too
+	 */
+	public long getFailedLines() {
+		return failed_lines;
+	}
+
+	/**
+	 * Unparks the thread, if it is waiting for lines
+	 */
+	void wake() {
+		if (waiting) {
+			waiting = false; // so it is not unparked again (which is expensive) before it wakes up
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Stops the subscription. The line being read (if any) is finished, but no more lines are read
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Waits until the thread of the subscription has stopped
+	 *
+	 * @param millis max time to wait, in milliseconds (0 means forever)
+	 * @return true if it stopped before the timeout
+	 */
+	public boolean awaitTermination(long millis) throws InterruptedException {
+		thread.join(millis);
+		return !thread.isAlive();
+	}
+
+	/**
+	 * Spins for a little while, in case the next line comes soon, so the thread doesn't have to be parked (and
+	 * unparked) for every line
+	 *
+	 * @return true if the line was published
+	 */
+	private boolean awaitLine(long sequence) {
+		for (int spins = 0; spins < 100; ++spins) {
+			if (sequence != ring.cursor())
+				return true;
+			Thread.onSpinWait();
+		}
+		return false;
+	}
+
+	/**
+	 * Passes an exception thrown by the subscriber to the error handler. It is not printed here: the standard error
+	 * may be the stream the subscriber is listening to (see {@link PromptConsole}), so it would get its own errors
+	 */
+	private void handleError(@NotNull RuntimeException e) {
+		try {
+			errorHandler.accept(e);
+		} catch (RuntimeException ignored) {
+		} // the error handler failed too, there is nothing else to do
+	}
+
+	/**
+	 * Body of the thread of the subscription
+	 */
+	private void run() {
+		try {
+			while (!closed) {
+				long sequence = next;
+				if (sequence == ring.cursor()) {
+					if (ring.isClosed())
+						return;
+
+					if (awaitLine(sequence))
+						continue;
+
+					waiting = true;
+					if (sequence == ring.cursor() && !ring.isClosed() && !closed) // the publisher may have missed the flag
+						LockSupport.park(this);
+					waiting = false;
+					continue;
+				}
+
+				LineRing.Slot slot = ring.slot(sequence);
+				int length = -1;
+				if (slot.sequence == sequence) {
+					byte[] data = slot.data;
+					length = Math.min(slot.length, data.length); // if they don't match, the slot is being overwritten
+					if (line.length < length)
+						line = new byte[Math.max(length, Math.min(line.length * 2, LineRing.MAX_LINE_LENGTH))];
+					System.arraycopy(data, 0, line, 0, length);
+					VarHandle.acquireFence(); // the line must be copied before the sequence is checked again
+				}
+				if (length == -1 || slot.sequence != sequence) {
+					// the line was overwritten, skip to the oldest line still in the ring
+					long oldest = Math.max(sequence + 1, ring.cursor() - ring.size());
+					dropped_lines += oldest - sequence;
+					next = oldest;
+					continue;
+				}
+
+				try {
+					subscriber.onLine(line, 0, length);
+				} catch (RuntimeException e) {
+					++failed_lines;
+					handleError(e); // a bad subscriber shouldn't stop the subscription
+				}
+				++delivered_lines;
+				next = sequence + 1;
+			}
+		} finally {
+			ring.unsubscribe(this);
+		}
+	}
+}
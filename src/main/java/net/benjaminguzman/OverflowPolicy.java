@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+
+/**
+ * Decides what {@link AsyncPromptOutputStream} does when its buffer is full, i.e. the output (e.g. a remote
+ * terminal, or a terminal paused with Ctrl-S) is slower than the threads that print.
+ * <p>
+ * By default, writers wait until there is space (see {@link #block()}). The buffer never grows, so the other
+ * policies keep the memory bounded without blocking, at the cost of losing some output. Dropped output is counted,
+ * see {@link AsyncPromptOutputStream#getDroppedLines()} and {@link AsyncPromptOutputStream#getDroppedBytes()}
+ * <p>
+ * Policies are immutable, so the same instance can be used by many streams.
+ *
+ * @see AsyncPromptOutputStream#setOverflowPolicy(OverflowPolicy)
+ */
+public final class OverflowPolicy {
+	enum Kind {
+		BLOCK, DROP_OLDEST, DROP_NEWEST, COLLAPSE
+	}
+
+	private static final @NotNull OverflowPolicy BLOCK = new OverflowPolicy(Kind.BLOCK, 0);
+	private static final @NotNull OverflowPolicy DROP_OLDEST = new OverflowPolicy(Kind.DROP_OLDEST, 0);
+	private static final @NotNull OverflowPolicy DROP_NEWEST = new OverflowPolicy(Kind.DROP_NEWEST, 0);
+	private static final @NotNull OverflowPolicy COLLAPSE = new OverflowPolicy(Kind.COLLAPSE, 0);
+
+	final @NotNull Kind kind;
+
+	/**
+	 * Max time (in nanoseconds) to wait for space. 0 to wait forever
+	 */
+	final long timeout;
+
+	private OverflowPolicy(@NotNull Kind kind, long timeout) {
+		this.kind = kind;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Writers wait until there is space in the buffer, so nothing is lost (the default)
+	 *
+	 * @return the policy
+	 */
+	public static @NotNull OverflowPolicy block() {
+		return BLOCK;
+	}
+
+	/**
+	 * Writers wait until there is space in the buffer, but no longer than the given time. If there is no space by
+	 * then, the write is dropped
+	 *
+	 * @param timeout max time to wait
+	 * @return the policy
+	 */
+	public static @NotNull OverflowPolicy block(@NotNull Duration timeout) {
+		if (timeout.isNegative() || timeout.isZero())
+			throw new IllegalArgumentException("timeout must be positive");
+
+		return new OverflowPolicy(Kind.BLOCK, timeout.toNanos());
+	}
+
+	/**
+	 * The oldest lines in the buffer (the ones that haven't been taken by the drainer yet) are dropped to make space
+	 * for the new ones, so the output shows the latest lines
+	 *
+	 * @return the policy
+	 */
+	public static @NotNull OverflowPolicy dropOldest() {
+		return DROP_OLDEST;
+	}
+
+	/**
+	 * Writes that don't fit in the buffer are dropped
+	 *
+	 * @return the policy
+	 */
+	public static @NotNull OverflowPolicy dropNewest() {
+		return DROP_NEWEST;
+	}
+
+	/**
+	 * Same as {@link #dropNewest()}, but a line like "[12 lines dropped]" is written where the lines were dropped,
+	 * so the user knows something is missing
+	 *
+	 * @return the policy
+	 */
+	public static @NotNull OverflowPolicy collapse() {
+		return COLLAPSE;
+	}
+
+	@Override
+	public String toString() {
+		return timeout == 0 ? kind.toString() : kind + " (" + Duration.ofNanos(timeout) + ")";
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+/**
+ * Lines that are written together, e.g. a stack trace or a report.
+ * <p>
+ * Everything printed to the block is kept in a buffer, and when the block is closed it is written to the
+ * {@link PromptOutputStream} with a single call (followed by a single prompt) and flushed once. Thus, lines printed
+ * by other threads are never in the middle of the block, and the prompt is not written (and deleted) after every
+ * line.
+ * <p>
+ * To use it, simply do something like this: {@code
+ * try (PromptBlock block = promptOutputStream.block()) {
+ *     block.println("Report");
+ *     block.println("  total: " + total);
+ * }
+ * }
+ * <p>
+ * A block should be used by a single thread, and nothing is written until it is closed.
+ * As any {@link PrintStream}, this class never throws {@link IOException}, use {@link #checkError()} instead
+ *
+ * @see PromptOutputStream#block()
+ * @see PromptOutputStream#printThrowable(Throwable)
+ */
+public final class PromptBlock extends PrintStream {
+	private final @NotNull PromptOutputStream promptOut;
+
+	private final @NotNull Buffer buffer;
+
+	private boolean closed;
+
+	PromptBlock(@NotNull PromptOutputStream promptOut, @NotNull Charset charset) {
+		this(promptOut, new Buffer(), charset);
+	}
+
+	private PromptBlock(@NotNull PromptOutputStream promptOut, @NotNull Buffer buffer, @NotNull Charset charset) {
+		super(buffer, false, charset);
+		this.promptOut = promptOut;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Writes the block (followed by the prompt, if it ends with a new line) to the {@link PromptOutputStream}
+	 */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+
+		flush(); // in case something is left in the encoder
+		try {
+			promptOut.writeBlock(buffer.bytes(), Buffer.HEADROOM, buffer.size() - Buffer.HEADROOM);
+		} catch (InterruptedIOException e) {
+			Thread.currentThread().interrupt();
+			setError();
+		} catch (IOException e) {
+			setError();
+		}
+		super.close(); // anything printed after this is an error
+	}
+
+	/**
+	 * Buffer with a spare byte at the beginning, so the \r can be put before the block without copying it (see
+	 * {@link PromptOutputStream#writeBlock(byte[], int, int)})
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		static final int HEADROOM = 1;
+
+		private Buffer() {
+			super(1024);
+			count = HEADROOM;
+		}
+
+		byte @NotNull [] bytes() {
+			return buf;
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Channel version of {@link PromptOutputStream}, intended for {@link java.nio.channels.FileChannel} (e.g. stdout
+ * redirected to a file) or any other {@link GatheringByteChannel}.
+ * <p>
+ * The \r (to delete the prompt), the bytes given to {@link #write(ByteBuffer)} and the prompt are written with a
+ * single gathering write (writev), without copying them into an intermediate array.
+ * <p>
+ * The prompt is written in the same places {@link PromptOutputStream} would write it, i.e. after a write that ends
+ * with a new line.
+ * <p>
+ * Only the prompt and the status icon are supported. Everything else {@link PromptOutputStream} does is not, so use
+ * it instead if you need any of these:
+ * <p>
+ * - {@link FlushPolicy}: there is no buffer to flush, every write goes to the channel right away.
+ * <p>
+ * - Passthrough mode: the prompt is always written, even if the output is not a terminal.
+ * <p>
+ * - Status line, prompt delay and redraw interval: the prompt is written right after the lines, and
+ * {@link #printPrompt(String)} always writes it.
+ * <p>
+ * - Repeated lines are not collapsed.
+ * <p>
+ * - Line subscribers, blocks and {@link PromptConsole}.
+ * <p>
+ * This class is thread-safe.
+ */
+public class PromptByteChannel implements WritableByteChannel {
+	private final GatheringByteChannel channel;
+
+	/**
+	 * Lock that must be held to write to {@link #channel}, and to use the buffers below
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * The status icon and the prompt that should be printed. See {@link PromptOutputStream}
+	 */
+	private final AtomicReference<PromptState> state = new AtomicReference<>(PromptState.EMPTY);
+
+	/**
+	 * Tells if the prompt is shown and should be deleted before writing anything else. See
+	 * {@link PromptOutputStream}
+	 */
+	private boolean should_delete_prompt;
+
+	private final ByteBuffer carriageReturn = ByteBuffer.wrap(new byte[]{'\r'});
+
+	/**
+	 * {@link PromptState#frame} of {@link #frameState} wrapped in a buffer. It is only wrapped again when the state
+	 * changes
+	 */
+	private ByteBuffer frame;
+
+	private PromptState frameState;
+
+	/**
+	 * Buffers given to the gathering write
+	 */
+	private final ByteBuffer[] buffers = new ByteBuffer[3];
+
+	/**
+	 * Creates a new object with no status icon and no prompt
+	 *
+	 * @param channel actual channel where data will be written
+	 */
+	public PromptByteChannel(@NotNull GatheringByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Set the prompt to be used. See {@link PromptOutputStream#setPrompt(String)}
+	 *
+	 * @param prompt the prompt to be used. If null, no prompt will be shown
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public PromptByteChannel setPrompt(@Nullable String prompt) {
+		PromptState current;
+		do {
+			current = state.get();
+		} while (!state.compareAndSet(current, current.withPrompt(prompt)));
+		return this;
+	}
+
+	/**
+	 * @return the prompt
+	 */
+	public @NotNull String getPrompt() {
+		return state.get().promptString;
+	}
+
+	/**
+	 * Set the status icon to show alongside the prompt. See {@link PromptOutputStream#setStatusIcon(String)}
+	 *
+	 * @param icon the emoji to show. If null, no icon will be shown
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public PromptByteChannel setStatusIcon(@Nullable String icon) {
+		withStatusIcon(icon);
+		return this;
+	}
+
+	/**
+	 * Atomically changes the status icon of the current state, without allocating if it didn't change
+	 *
+	 * @return the new state
+	 */
+	private @NotNull PromptState withStatusIcon(@Nullable String icon) {
+		PromptState current, next;
+		do {
+			current = state.get();
+			next = current.withStatusIcon(icon);
+		} while (!state.compareAndSet(current, next));
+		return next;
+	}
+
+	/**
+	 * Set both the status icon and the prompt atomically. See {@link PromptOutputStream#update(String, String)}
+	 *
+	 * @param icon   the emoji to show. If null, no icon will be shown
+	 * @param prompt the prompt to be used. If null, no prompt will be shown
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public PromptByteChannel update(@Nullable String icon, @Nullable String prompt) {
+		state.set(PromptState.of(icon, prompt));
+		return this;
+	}
+
+	/**
+	 * Changes the status icon and prints the prompt. See {@link PromptOutputStream#printPrompt(String)}
+	 *
+	 * @param icon the emoji to show
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public PromptByteChannel printPrompt(@NotNull String icon) {
+		printPrompt(withStatusIcon(icon));
+		return this;
+	}
+
+	/**
+	 * Prints the prompt. See {@link PromptOutputStream#printPrompt()}
+	 *
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public PromptByteChannel printPrompt() {
+		printPrompt(state.get());
+		return this;
+	}
+
+	private void printPrompt(@NotNull PromptState promptState) {
+		lock.lock();
+		try {
+			ByteBuffer frame = frame(promptState);
+			frame.position(0); // \r places the cursor at the beginning
+			while (frame.hasRemaining())
+				channel.write(frame);
+			should_delete_prompt = true;
+		} catch (IOException ignored) { // just ignore the exception 🤞 it is nothing terribly bad
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of the buffer, followed by the prompt if they end with a new line.
+	 * <p>
+	 * Unlike other channels, this doesn't return until all the bytes have been written
+	 *
+	 * @param src the buffer
+	 * @return the number of bytes written from the buffer (i.e. all the remaining bytes)
+	 */
+	@Override
+	public int write(@NotNull ByteBuffer src) throws IOException {
+		int len = src.remaining();
+		if (len == 0)
+			return 0;
+
+		boolean new_line = src.get(src.limit() - 1) == '\n';
+
+		lock.lock();
+		try {
+			int n_buffers = 0;
+			if (shouldWriteCarriageReturn()) {
+				carriageReturn.position(0); // start writing at the beginning
+				buffers[n_buffers++] = carriageReturn;
+			}
+
+			buffers[n_buffers++] = src;
+
+			if (new_line) {
+				ByteBuffer frame = frame(state.get());
+				frame.position(1); // the cursor is already at the beginning, so \r is not needed
+				buffers[n_buffers++] = frame;
+			}
+
+			// a gathering write may not write everything
+			try {
+				int first = 0;
+				while (first < n_buffers) {
+					channel.write(buffers, first, n_buffers - first);
+					while (first < n_buffers && !buffers[first].hasRemaining())
+						++first;
+				}
+			} finally {
+				buffers[0] = buffers[1] = buffers[2] = null; // don't keep a reference to src
+			}
+
+			should_delete_prompt = new_line;
+			return len;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Caller must hold {@link #lock}. See {@link PromptOutputStream}
+	 *
+	 * @return true if the prompt is shown and it is not empty (i.e. there is something to delete)
+	 */
+	private boolean shouldWriteCarriageReturn() {
+		return should_delete_prompt && frameState.frame.length > 1;
+	}
+
+	/**
+	 * Caller must hold {@link #lock}
+	 *
+	 * @return the frame of the given state, wrapped in a buffer
+	 */
+	private @NotNull ByteBuffer frame(@NotNull PromptState promptState) {
+		if (promptState != frameState) {
+			frame = ByteBuffer.wrap(promptState.frame);
+			frameState = promptState;
+		}
+
+		return frame;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			channel.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+/**
+ * Coordinates several streams shown in the same terminal (e.g. the standard output and the standard error), so
+ * there is only one prompt on the screen.
+ * <p>
+ * If {@link System#out} and {@link System#err} are wrapped in two different {@link PromptOutputStream}s, each of them
+ * has its own lock and its own prompt: lines printed to the standard error are written over the prompt (or in the
+ * middle of a line), and the prompt is printed twice.
+ * <p>
+ * Instead, a console has a single {@link PromptOutputStream} (the one with the prompt, usually the standard output)
+ * and every other stream writes through it. Its lock orders the output of all the streams, and after the output
+ * of any of them, the prompt is written once.
+ * <p>
+ * To use it, simply do something like this: {@code
+ * PromptConsole console = PromptConsole.install();
+ * console.getPromptOutputStream().setPrompt("> ");
+ * }
+ * <p>
+ * Output written to the other streams is flushed right away (otherwise it could be shown after the prompt), so
+ * the {@link FlushPolicy} only applies to the stream with the prompt.
+ * <p>
+ * This class is thread-safe.
+ */
+public class PromptConsole {
+	private final @NotNull PromptOutputStream promptOut;
+
+	private final @NotNull PromptPrintStream out;
+
+	private final @NotNull PrintStream err;
+
+	/**
+	 * Creates a new console
+	 *
+	 * @param out     stream where the prompt is printed (e.g. the standard output)
+	 * @param err     another stream shown in the same terminal (e.g. the standard error)
+	 * @param charset charset used by the print streams
+	 */
+	public PromptConsole(@NotNull OutputStream out, @NotNull OutputStream err, @NotNull Charset charset) {
+		this.promptOut = new PromptOutputStream(out);
+		this.out = new PromptPrintStream(promptOut, charset);
+		this.err = new PrintStream(share(err), false, charset);
+	}
+
+	/**
+	 * Creates a new console that uses the default charset
+	 *
+	 * @param out stream where the prompt is printed (e.g. the standard output)
+	 * @param err another stream shown in the same terminal (e.g. the standard error)
+	 */
+	public PromptConsole(@NotNull OutputStream out, @NotNull OutputStream err) {
+		this(out, err, Charset.defaultCharset());
+	}
+
+	/**
+	 * Creates a console for the standard output and the standard error file descriptors, and replaces
+	 * {@link System#out} and {@link System#err} with its print streams
+	 * <p>
+	 * If the output is not a terminal, the prompt is not printed (see {@link PromptOutputStream#isTerminal()})
+	 *
+	 * @return the new console
+	 */
+	public static @NotNull PromptConsole install() {
+		PromptConsole console = new PromptConsole(
+			new FileOutputStream(FileDescriptor.out),
+			new FileOutputStream(FileDescriptor.err)
+		);
+		console.promptOut.setPassthrough(!PromptOutputStream.isTerminal());
+		System.setOut(console.out);
+		System.setErr(console.err);
+		return console;
+	}
+
+	/**
+	 * @return the stream with the prompt. Use it to change the prompt, the status icon, the flush policy...
+	 */
+	public @NotNull PromptOutputStream getPromptOutputStream() {
+		return promptOut;
+	}
+
+	/**
+	 * @return print stream for the stream with the prompt (e.g. the standard output)
+	 */
+	public @NotNull PromptPrintStream out() {
+		return out;
+	}
+
+	/**
+	 * @return print stream for the other stream (e.g. the standard error)
+	 */
+	public @NotNull PrintStream err() {
+		return err;
+	}
+
+	/**
+	 * Wraps another stream shown in the same terminal, so it is coordinated with the prompt
+	 * <p>
+	 * Every write to the returned stream deletes the prompt, writes the bytes, and, if they end with a new line,
+	 * prints the prompt again. Thus, write whole lines (e.g. don't use a {@link PrintStream} with autoflush, and
+	 * don't wrap it in an unbuffered writer)
+	 *
+	 * @param other the other stream
+	 * @return a stream that writes to the given one
+	 */
+	public @NotNull OutputStream share(@NotNull OutputStream other) {
+		return new SharedOutputStream(promptOut, other);
+	}
+
+	/**
+	 * Stream that writes to another stream through the {@link PromptOutputStream} of the console
+	 */
+	private static class SharedOutputStream extends OutputStream {
+		private final @NotNull PromptOutputStream promptOut;
+
+		private final @NotNull OutputStream out;
+
+		/**
+		 * Buffer for {@link #write(int)}, so single bytes are written without allocating
+		 * <p>
+		 * Guarded by {@link PromptOutputStream#lock}
+		 */
+		private final byte @NotNull [] singleByte = new byte[1];
+
+		private SharedOutputStream(@NotNull PromptOutputStream promptOut, @NotNull OutputStream out) {
+			this.promptOut = promptOut;
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			promptOut.lock.lock();
+			try {
+				singleByte[0] = (byte) b;
+				promptOut.writeTo(out, singleByte, 0, 1);
+			} finally {
+				promptOut.lock.unlock();
+			}
+		}
+
+		@Override
+		public void write(byte @NotNull [] b, int off, int len) throws IOException {
+			Objects.checkFromIndexSize(off, len, b.length);
+			promptOut.writeTo(out, b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -31,7 +31,15 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * This class provided very similar functionality to {@link OutputStream}, the only differences is that you can
@@ -50,8 +58,11 @@ import java.nio.charset.StandardCharsets;
  * Note that, in this example the {@link PrintStream} we create contains a {@link PromptOutputStream} which contains
  * another {@link PrintStream} (because {@link System#out} is a {@link PrintStream}).
  * <p>
- * Even though this is not strictly bad, it may be cleaner to just extend {@link PrintStream}, but more code should
- * be written. Despite that, this may be a more general solution.
+ * Even though this is not strictly bad, every line goes through two charset encoders, two locks and two buffers.
+ * If you just want to replace {@link System#out}, {@link PromptPrintStream} avoids that.
+ * <p>
+ * By default, the underlying output stream is flushed after every new line. Use
+ * {@link #setFlushPolicy(FlushPolicy)} to flush less often.
  * <p>
  * This class is thread-safe.
  * <p>
@@ -63,30 +74,34 @@ public class PromptOutputStream extends OutputStream {
 	private final OutputStream out;
 
 	/**
-	 * The prompt (as bytes) that should be printed
-	 * <p>
-	 * Examples:
+	 * Lock that must be held to write to {@link #out}.
 	 * <p>
-	 * >>>
+	 * A {@link ReentrantLock} is used instead of synchronized blocks because, up to Java 23, a virtual thread
+	 * blocked inside a synchronized block (e.g. waiting for a slow terminal) pins its carrier thread. Threads
+	 * waiting for a {@link ReentrantLock} are unmounted instead. When there is no contention, acquiring it is a
+	 * single CAS
 	 * <p>
-	 * >
-	 * <p>
-	 * $
+	 * {@link PromptPrintStream} holds this same lock while it encodes chars, so there is only one lock per line
 	 */
-	private byte @NotNull [] prompt;
+	final ReentrantLock lock = new ReentrantLock();
 
 	/**
-	 * The status symbol (as bytes) that should be printed
-	 * <p>
-	 * Examples:
+	 * The status icon and the prompt that should be printed, e.g. "⏳ >>> ", "✔ $ " or "❌ > "
 	 * <p>
-	 * ⏳
+	 * The snapshot is immutable and replaced atomically, so it can be read without holding the lock. Whoever
+	 * writes the prompt reads the snapshot once and uses it, so the icon and the prompt are always consistent
+	 */
+	private final AtomicReference<PromptState> state = new AtomicReference<>(PromptState.EMPTY);
+
+	/**
+	 * Buffer used to join the \r, the line and the prompt, so they can be written with a single call to the
+	 * underlying output stream.
 	 * <p>
-	 * ✔
+	 * Lines that do not fit in this buffer are written without copying them (i.e. with more than one write)
 	 * <p>
-	 * ❌
+	 * Access to this buffer is guarded by {@link #lock}
 	 */
-	private byte @NotNull [] statusIcon;
+	private final byte @NotNull [] lineBuffer = new byte[8192];
 
 	/**
 	 * Flag to tell if the prompt should be deleted in a next call to any write method.
@@ -98,9 +113,216 @@ public class PromptOutputStream extends OutputStream {
 	 * <p>
 	 * This may be set to true after printing the prompt, so the next line to be printed does not include the
 	 * prompt
+	 * <p>
+	 * Unlike {@link #state}, this describes what is currently on the output, so it is only accessed while holding
+	 * {@link #lock}
 	 */
 	private boolean should_delete_prompt;
 
+	/**
+	 * The state whose icon and prompt are shown in the current line, i.e. the bytes between the beginning of the line
+	 * and the cursor. Only meaningful while {@link #should_delete_prompt} is true
+	 * <p>
+	 * This is all that is known about the cursor: its column is not tracked (user input echoed by the terminal
+	 * would move it anyway), it is only known to be at the beginning of the line if the prompt shown is empty.
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private @NotNull PromptState shown = PromptState.EMPTY;
+
+	/**
+	 * Decides when the underlying output stream is flushed
+	 */
+	private @NotNull FlushPolicy flushPolicy;
+
+	/**
+	 * Min time (in nanoseconds) between two redraws made by {@link #printPrompt(String)}. 0 if redraws are not
+	 * coalesced
+	 */
+	private volatile long redrawInterval;
+
+	/**
+	 * Time ({@link System#nanoTime()}) of the last time the prompt was drawn, or {@link #NEVER_DRAWN}
+	 */
+	private volatile long last_redraw = NEVER_DRAWN;
+
+	/**
+	 * true if a redraw has been scheduled (or is about to be made) and hasn't read the state yet
+	 */
+	private final @NotNull AtomicBoolean redraw_pending = new AtomicBoolean();
+
+	/**
+	 * {@link #scheduledRedraw()} as a task for the scheduler, so it is not allocated every time it's scheduled
+	 */
+	private final @NotNull Runnable redrawTask = this::scheduledRedraw;
+
+	/**
+	 * Time (in nanoseconds) the output must be idle before the prompt is written after a line. 0 if the prompt is
+	 * written right after every line
+	 */
+	private volatile long promptDelay;
+
+	/**
+	 * true if a line was written, but the prompt after it hasn't been written yet (because it is deferred until the
+	 * output is idle, see {@link #setPromptDelay(Duration)})
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private boolean prompt_pending;
+
+	/**
+	 * true if {@link #printPendingPrompt()} has been scheduled
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private boolean prompt_scheduled;
+
+	/**
+	 * Time ({@link System#nanoTime()}) the last line was written. Only updated if the prompt is deferred
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private long last_line;
+
+	/**
+	 * {@link #printPendingPrompt()} as a task for the scheduler
+	 */
+	private final @NotNull Runnable pendingPromptTask = this::printPendingPrompt;
+
+	/**
+	 * Escape sequence to save the cursor position, move it to the status line, and clear that line. null if the
+	 * status line is disabled (see {@link #enableStatusLine(int)})
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private byte @Nullable [] statusLinePrefix;
+
+	/**
+	 * Max length (in bytes) of the lines that are collapsed if they are repeated. 0 if repeated lines are not
+	 * collapsed (see {@link #setRepeatedLineWindow(int)})
+	 */
+	private volatile int repeatWindow;
+
+	/**
+	 * The last line that was written, without the new line. Only the first {@link #repeated_line_len} bytes are
+	 * valid
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private byte @NotNull [] repeatedLine = new byte[0];
+
+	/**
+	 * Length of {@link #repeatedLine}. -1 if the next line can't be collapsed (e.g. something else was written
+	 * after the last line)
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private int repeated_line_len = -1;
+
+	/**
+	 * Hash of {@link #repeatedLine}, so most different lines are told apart without comparing them
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private int repeated_line_hash;
+
+	/**
+	 * Number of times {@link #repeatedLine} has been written in a row
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private int repeats;
+
+	/**
+	 * true if {@link #repeats} is greater than the counter that is shown, because the counter is rewritten at most
+	 * once per {@link #redrawInterval}
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private boolean repeats_pending;
+
+	/**
+	 * true if {@link #printPendingRepeats()} has been scheduled
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private boolean repeats_scheduled;
+
+	/**
+	 * Time ({@link System#nanoTime()}) the counter of repeated lines was last written
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private long last_repeats_draw;
+
+	/**
+	 * {@link #printPendingRepeats()} as a task for the scheduler
+	 */
+	private final @NotNull Runnable pendingRepeatsTask = this::printPendingRepeats;
+
+	/**
+	 * true if the current line has been partially written, i.e. the beginning of the next line that is completed is
+	 * not in the bytes that complete it
+	 * <p>
+	 * Guarded by {@link #lock}
+	 */
+	private boolean partial_line;
+
+	/**
+	 * true if bytes are written as they are, without the prompt (see {@link #setPassthrough(boolean)})
+	 */
+	private volatile boolean passthrough;
+
+	/**
+	 * Ring through which lines are published to the subscribers, or null if nobody has subscribed
+	 * (see {@link #subscribe(LineSubscriber)})
+	 */
+	private volatile @Nullable LineRing lineRing;
+
+	/**
+	 * System property to override {@link #isTerminal()}
+	 */
+	public static final @NotNull String TERMINAL_PROPERTY = "net.benjaminguzman.terminal";
+
+	/**
+	 * Value of {@link #last_redraw} until the prompt is drawn for the first time
+	 */
+	private static final long NEVER_DRAWN = Long.MIN_VALUE;
+
+	/**
+	 * Escape sequence to move the cursor one row up (CUU)
+	 */
+	private static final byte @NotNull [] CURSOR_UP = {0x1b, '[', '1', 'A'};
+
+	/**
+	 * Escape sequence to save the cursor position (DECSC)
+	 */
+	private static final byte @NotNull [] SAVE_CURSOR = {0x1b, '7'};
+
+	/**
+	 * Escape sequence to restore the cursor position saved by {@link #SAVE_CURSOR} or {@link #statusLinePrefix}
+	 * (DECRC)
+	 */
+	private static final byte @NotNull [] RESTORE_CURSOR = {0x1b, '8'};
+
+	/**
+	 * Escape sequence to make the whole screen the scrolling region. It moves the cursor to the top, that's why
+	 * {@link #disableStatusLine()} writes it between a save (which is part of {@link #statusLinePrefix}) and
+	 * {@link #RESTORE_CURSOR}
+	 */
+	private static final byte @NotNull [] RESET_SCROLLING_REGION = {0x1b, '[', 'r'};
+
+	/**
+	 * A new line on its own, written by {@link #write(int)}. It can't be staged in {@link #lineBuffer}, because
+	 * {@link #writeLine(byte[], int, int)} may write the counter of repeated lines there before reading it
+	 */
+	private static final byte @NotNull [] NEW_LINE = {'\n'};
+
+	/**
+	 * \r and the escape sequence to clear the line
+	 */
+	private static final byte @NotNull [] CLEAR_LINE = {'\r', 0x1b, '[', '2', 'K'};
+
 	/**
 	 * Creates a new object with no status icon and no prompt
 	 * <p>
@@ -111,34 +333,291 @@ public class PromptOutputStream extends OutputStream {
 	 */
 	public PromptOutputStream(@NotNull OutputStream out) {
 		this.out = out;
-		this.prompt = new byte[0]; // just ensure it is not null
-		this.statusIcon = new byte[0]; // just ensure it is not null
+		this.flushPolicy = FlushPolicy.perLine();
 	}
 
 	/**
-	 * Set the prompt to be used
+	 * Set the policy that decides when the underlying output stream is flushed.
 	 * <p>
-	 * This operation does not write to output
+	 * By default, it is flushed after every new line
+	 *
+	 * @param flushPolicy the policy. It must not be used by any other stream
+	 * @return the same object (so you can use fluent pattern)
+	 * @see FlushPolicy
+	 */
+	public PromptOutputStream setFlushPolicy(@NotNull FlushPolicy flushPolicy) {
+		lock.lock();
+		try {
+			flushPolicy.bind(this);
+			this.flushPolicy = flushPolicy;
+		} finally {
+			lock.unlock();
+		}
+
+		return this;
+	}
+
+	/**
+	 * Write the output as it is, without the prompt.
 	 * <p>
-	 * This method has the same problem described in {@link #setStatusIcon(String)} method documentation
+	 * If the output is not a terminal (e.g. it is redirected to a file, or the application is run by cron), the
+	 * prompt (and the \r before the next line) is just garbage in the file, and flushing after every line costs
+	 * I/O. In this mode, writes go straight to the underlying output stream: no prompt bytes and no flushes other than
+	 * the ones made with {@link #flush()}. The lock is still taken, so writes from different threads are not mixed.
+	 * <p>
+	 * Methods that draw the prompt (e.g. {@link #printPrompt()}) do nothing, but still change the state, so the
+	 * prompt is right if this mode is disabled later.
+	 * <p>
+	 * {@link PromptPrintStream#stdout()}, {@link PromptPrintStream#stderr()} and {@link PromptConsole#install()}
+	 * enable it if {@link #isTerminal()} is false. Call this method to override that
 	 *
-	 * @param prompt the prompt to be used. If null, no prompt will be shown
+	 * @param passthrough true to write the output without the prompt. False by default
 	 * @return the same object (so you can use fluent pattern)
 	 */
-	public PromptOutputStream setPrompt(@Nullable String prompt) {
-		if (prompt == null) {
-			synchronized (out) {
-				this.prompt = new byte[0];
+	public PromptOutputStream setPassthrough(boolean passthrough) {
+		try {
+			lock.lock();
+			try {
+				if (passthrough && statusLinePrefix == null)
+					settleRepeats();
+				if (passthrough && statusLinePrefix == null && shouldWriteCarriageReturn()) {
+					out.write(CLEAR_LINE); // the prompt is not going to be deleted by the next line
+					flushLocked();
+				}
+
+				this.passthrough = passthrough;
+				should_delete_prompt = false;
+				prompt_pending = false;
+				repeated_line_len = -1;
+				partial_line = true; // lines are (or were) written as they are, the last one may be incomplete
+			} finally {
+				lock.unlock();
 			}
+		} catch (IOException ignored) {
+		} // just ignore the exception 🤞 it is nothing terribly bad
+
+		return this;
+	}
+
+	/**
+	 * Tells if the application is connected to a terminal, i.e. if the prompt should be shown.
+	 * <p>
+	 * It is overridden by the {@value #TERMINAL_PROPERTY} system property (e.g.
+	 * {@code -Dnet.benjaminguzman.terminal=false}). Otherwise, it is true if {@link System#console()} is not null.
+	 * Note that, since Java 22, {@link System#console()} may not be null even if the output is redirected, so
+	 * you may want to set the property
+	 *
+	 * @return true if the output is (most likely) a terminal
+	 */
+	public static boolean isTerminal() {
+		String property = System.getProperty(TERMINAL_PROPERTY);
+		if (property != null)
+			return Boolean.parseBoolean(property);
+
+		return System.console() != null;
+	}
+
+	/**
+	 * Coalesce the redraws made by {@link #printPrompt(String)}.
+	 * <p>
+	 * If the icon is changed very often (e.g. a spinner updated from progress callbacks), every call locks the
+	 * stream, writes the prompt and flushes the output. With an interval, the prompt is redrawn at most once per
+	 * interval: calls made before the interval has elapsed only change the icon, and a single redraw (with the
+	 * latest icon) is made when it elapses.
+	 * <p>
+	 * Thus, the bytes written to the terminal and the time the lock is held are bounded, no matter how often the
+	 * icon changes. For example, use {@code Duration.ofMillis(16)} for about 60 redraws per second.
+	 * <p>
+	 * {@link #printPrompt()} is not affected, it always draws the prompt immediately
+	 *
+	 * @param interval min time between two redraws. If null or zero, redraws are not coalesced (the default)
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public PromptOutputStream setRedrawInterval(@Nullable Duration interval) {
+		this.redrawInterval = interval == null || interval.isNegative() ? 0 : interval.toNanos();
+		return this;
+	}
+
+	/**
+	 * Defer the prompt until the output has been idle for the given time.
+	 * <p>
+	 * By default, the prompt is written after every line, and deleted when the next line is written. When lots of
+	 * lines are printed in a burst, most of those prompts are overwritten right away. With a delay, the prompt is only
+	 * written once no line has been printed for that time (or when {@link #printPrompt()} is called), so a burst
+	 * costs a single prompt.
+	 * <p>
+	 * The flush policy is still applied after every line, you may also want a policy that flushes less often
+	 *
+	 * @param delay how long the output must be idle (e.g. {@code Duration.ofMillis(20)}). If null or zero, the
+	 *              prompt is written after every line (the default)
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public PromptOutputStream setPromptDelay(@Nullable Duration delay) {
+		this.promptDelay = delay == null || delay.isNegative() ? 0 : delay.toNanos();
+		return this;
+	}
+
+	/**
+	 * Collapse repeated lines.
+	 * <p>
+	 * If the same line is written many times in a row (e.g. by a retry loop), it is rewritten in place with a
+	 * counter, like "Connection refused (x1234)", instead of being written again in a new row. Lines are compared
+	 * byte by byte (after comparing their hashes), nothing is decoded.
+	 * <p>
+	 * The previous row is rewritten by moving the cursor up, so the line (and the counter) must fit in a single row
+	 * of the terminal. Use a window smaller than the width of the terminal, longer lines are never collapsed (that
+	 * also bounds the memory used to remember the last line).
+	 * <p>
+	 * Only lines written alone (e.g. with {@code println}) are collapsed, and only if nothing else was written
+	 * after the previous one. Empty lines are never collapsed. If something else may have moved the cursor (e.g.
+	 * the user pressed enter), call {@link #printPrompt()}, the next line is not collapsed then.
+	 * <p>
+	 * Rewriting a line takes more bytes than writing it again. If a redraw interval is set (see
+	 * {@link #setRedrawInterval(Duration)}), the counter is rewritten at most once per interval, so a burst of
+	 * repeated lines costs a couple of writes
+	 *
+	 * @param window max length (in bytes) of the lines that are collapsed, e.g. 64. 0 to not collapse lines (the
+	 *               default)
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public PromptOutputStream setRepeatedLineWindow(int window) {
+		if (window < 0 || window > lineBuffer.length / 2)
+			throw new IllegalArgumentException("window must be between 0 and " + lineBuffer.length / 2);
+
+		try {
+			lock.lock();
+			try {
+				settleRepeats(); // the counter of the current line is lost with the old buffer
+				repeatedLine = new byte[window];
+				repeated_line_len = -1;
+				repeatWindow = window;
+			} finally {
+				lock.unlock();
+			}
+		} catch (IOException ignored) {
+		} // just ignore the exception 🤞 it is nothing terribly bad
+
+		return this;
+	}
+
+	/**
+	 * Show the status icon and the prompt in the last row of the terminal, instead of after every line.
+	 * <p>
+	 * The rows above the last one are set as the scrolling region (DECSTBM), so the output scrolls above the status
+	 * line without deleting it. Lines are written as they are, without the \r and the prompt (i.e. zero extra bytes
+	 * per line). Only {@link #printPrompt()} and {@link #printPrompt(String)} (and {@link Spinner}) write to the status
+	 * line, and they save and restore the cursor position around it.
+	 * <p>
+	 * The terminal must understand ANSI (VT100) escape sequences. Java can't get the size of the terminal, so it
+	 * must be given (e.g. from the output of {@code tput lines} or the LINES environment variable). If the terminal
+	 * is resized, call this method again with the new size.
+	 *
+	 * @param rows number of rows of the terminal
+	 * @return the same object (so you can use fluent pattern)
+	 * @see #disableStatusLine()
+	 */
+	public PromptOutputStream enableStatusLine(int rows) {
+		if (rows < 2)
+			throw new IllegalArgumentException("The terminal must have at least 2 rows");
+		if (passthrough)
 			return this;
-		}
 
-		byte[] promptBytes = prompt.getBytes(StandardCharsets.UTF_8);
+		try {
+			lock.lock();
+			try {
+				settleRepeats();
+				if (should_delete_prompt)
+					out.write(CLEAR_LINE); // delete the prompt, the output continues where it was
+
+				// make room for the status line (if the cursor is in the last row, the output scrolls up) and set
+				// the scrolling region. Setting the region moves the cursor, so it must be saved and restored
+				String sequence = "\n\033[1A\0337\033[1;" + (rows - 1) + "r\0338";
+				out.write(sequence.getBytes(StandardCharsets.US_ASCII));
+
+				statusLinePrefix = ("\0337\033[" + rows + ";1H\033[2K").getBytes(StandardCharsets.US_ASCII);
+				should_delete_prompt = false;
+				prompt_pending = false;
+				repeated_line_len = -1;
+				writeStatusLine(state.get());
+				flushLocked();
+			} finally {
+				lock.unlock();
+			}
+		} catch (IOException ignored) {
+		} // just ignore the exception 🤞 it is nothing terribly bad
+
+		return this;
+	}
+
+	/**
+	 * Go back to printing the prompt after every line.
+	 * <p>
+	 * The scrolling region is reset and the status line is cleared
+	 *
+	 * @return the same object (so you can use fluent pattern)
+	 * @see #enableStatusLine(int)
+	 */
+	public PromptOutputStream disableStatusLine() {
+		try {
+			lock.lock();
+			try {
+				byte[] prefix = statusLinePrefix;
+				if (prefix == null)
+					return this;
+
+				statusLinePrefix = null;
+				partial_line = true; // lines were written as they are, the last one may be incomplete
+				out.write(prefix); // clear the status line
+				out.write(RESET_SCROLLING_REGION);
+				out.write(RESTORE_CURSOR);
+				flushLocked();
+			} finally {
+				lock.unlock();
+			}
+		} catch (IOException ignored) {
+		} // just ignore the exception 🤞 it is nothing terribly bad
+
+		return this;
+	}
+
+	/**
+	 * Writes the status icon and the prompt in the status line, with a single call to the output stream if possible
+	 * <p>
+	 * Caller must hold {@link #lock}, and the status line must be enabled
+	 */
+	private void writeStatusLine(@NotNull PromptState promptState) throws IOException {
+		byte[] prefix = Objects.requireNonNull(statusLinePrefix);
+		byte[] frame = promptState.frame;
+		int frame_len = frame.length - 1; // without \r
+		int len = prefix.length + frame_len + RESTORE_CURSOR.length;
 
-		synchronized (out) {
-			this.prompt = promptBytes;
+		if (len <= lineBuffer.length) {
+			System.arraycopy(prefix, 0, lineBuffer, 0, prefix.length);
+			System.arraycopy(frame, 1, lineBuffer, prefix.length, frame_len);
+			System.arraycopy(RESTORE_CURSOR, 0, lineBuffer, prefix.length + frame_len, RESTORE_CURSOR.length);
+			out.write(lineBuffer, 0, len);
+		} else {
+			out.write(prefix);
+			out.write(frame, 1, frame_len);
+			out.write(RESTORE_CURSOR);
 		}
+	}
 
+	/**
+	 * Set the prompt to be used
+	 * <p>
+	 * This operation does not write to output
+	 * <p>
+	 * This method has the same problem described in {@link #setStatusIcon(String)} method documentation
+	 *
+	 * @param prompt the prompt to be used. If null, no prompt will be shown
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public PromptOutputStream setPrompt(@Nullable String prompt) {
+		PromptState current;
+		do {
+			current = state.get();
+		} while (!state.compareAndSet(current, current.withPrompt(prompt)));
 		return this;
 	}
 
@@ -146,18 +625,19 @@ public class PromptOutputStream extends OutputStream {
 	 * @return the prompt bytes converted to a string. This is likely to equal the same prompt provided in the
 	 * constructor or set with {@link #setPrompt(String)}.
 	 * <p>
-	 * It is "likely" to equal, because the bytes are decoded using {@link String} constructor
+	 * It is "likely" to equal, because the bytes are decoded using {@link String} constructor.
+	 * The string is decoded only once, when the prompt is set
 	 */
 	@Nullable
 	public String getPrompt() {
-		return new String(prompt);
+		return state.get().promptString;
 	}
 
 	/**
 	 * @return the prompt bytes
 	 */
 	public byte @NotNull [] getPromptBytes() {
-		return prompt;
+		return state.get().prompt;
 	}
 
 	/**
@@ -166,7 +646,7 @@ public class PromptOutputStream extends OutputStream {
 	 * <p>
 	 * This operation does not write to output
 	 * <p>
-	 * Even though, this is synchronized, that doesn't mean you won't get unexpected output.
+	 * Even though, this is atomic, that doesn't mean you won't get unexpected output.
 	 * <p>
 	 * Let's say you have 2 threads. One calling {@link #setStatusIcon(String)} and then {@link #write(byte[])}
 	 * (or any write method via println). Suppose the other thread does the same. In such case, the following
@@ -181,29 +661,50 @@ public class PromptOutputStream extends OutputStream {
 	 * Thread 2: any write method is invoked. Then it prints the icon 💀 (good)
 	 * <p>
 	 * Therefore, you'll need to add extra synchronization or use another method like {@link #printPrompt(String)}
+	 * <p>
+	 * To change both the icon and the prompt, use {@link #update(String, String)}
 	 *
 	 * @param icon the emoji to show. If null, no icon will be shown
 	 * @return the same object (so you can use fluent pattern)
 	 * @see #printPrompt(String)
 	 */
 	public PromptOutputStream setStatusIcon(@Nullable String icon) {
-		if (icon == null) {
-			synchronized (out) {
-				statusIcon = new byte[0];
-			}
-
-			return this;
-		}
-
-		if (!icon.endsWith(" "))
-			icon = icon + " ";
-
-		byte[] iconBytes = icon.getBytes(StandardCharsets.UTF_8);
+		withStatusIcon(icon);
+		return this;
+	}
 
-		synchronized (out) {
-			statusIcon = iconBytes;
-		}
+	/**
+	 * Atomically changes the status icon of the current state.
+	 * <p>
+	 * This is the same as {@code state.updateAndGet(current -> current.withStatusIcon(icon))}, but without
+	 * allocating the lambda. If the icon didn't change, nothing is allocated at all
+	 *
+	 * @return the new state
+	 */
+	private @NotNull PromptState withStatusIcon(@Nullable String icon) {
+		PromptState current, next;
+		do {
+			current = state.get();
+			next = current.withStatusIcon(icon);
+		} while (!state.compareAndSet(current, next));
+		return next;
+	}
 
+	/**
+	 * Set both the status icon and the prompt atomically.
+	 * <p>
+	 * Calling {@link #setStatusIcon(String)} and then {@link #setPrompt(String)} while another thread does the same
+	 * may result in the icon of one thread being shown with the prompt of the other. That doesn't happen with this
+	 * method.
+	 * <p>
+	 * This operation does not write to output
+	 *
+	 * @param icon   the emoji to show. If null, no icon will be shown
+	 * @param prompt the prompt to be used. If null, no prompt will be shown
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public PromptOutputStream update(@Nullable String icon, @Nullable String prompt) {
+		state.set(PromptState.of(icon, prompt));
 		return this;
 	}
 
@@ -222,18 +723,132 @@ public class PromptOutputStream extends OutputStream {
 	 * @see #printPrompt()
 	 */
 	public PromptOutputStream printPrompt(@NotNull String icon) {
+		// write the snapshot this thread created, even if another thread changes the state before the lock is
+		// acquired
+		PromptState newState = withStatusIcon(icon);
+
+		long interval = redrawInterval;
+		if (interval == 0) {
+			drawPrompt(newState, true);
+			return this;
+		}
+
+		// the state is updated before checking if there is a pending redraw, so the pending redraw (if any) will
+		// show this icon or a newer one
+		if (!redraw_pending.compareAndSet(false, true))
+			return this;
+
+		// nanoTime() has an arbitrary origin, so nothing can be computed from last_redraw until it is set
+		long last = last_redraw;
+		long delay = last == NEVER_DRAWN ? 0 : last + interval - System.nanoTime();
+		if (delay <= 0)
+			redraw(); // the last redraw was long ago, no need to wait
+		else
+			PromptScheduler.schedule(redrawTask, delay);
+
+		return this;
+	}
+
+	/**
+	 * Draws the latest state. Used when redraws are coalesced, see {@link #setRedrawInterval(Duration)}
+	 */
+	private void redraw() {
+		// clear the flag before reading the state, so any update made after reading it schedules another redraw
+		redraw_pending.set(false);
+		drawPrompt(state.get(), true);
+	}
+
+	/**
+	 * {@link #redraw()} run by the scheduler. If another thread is writing, it tries again later instead of waiting
+	 * (see {@link PromptScheduler})
+	 */
+	private void scheduledRedraw() {
+		if (!lock.tryLock()) {
+			PromptScheduler.schedule(redrawTask, PromptScheduler.RETRY_DELAY);
+			return;
+		}
 		try {
-			synchronized (out) {
-				this.setStatusIcon(icon);
-				out.write('\r'); // start writing at the beginning
-				out.write(statusIcon);
-				out.write(prompt);
-				out.flush();
+			redraw();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the frame of the given state and flushes the output
+	 *
+	 * @param only_icon true if it is enough to rewrite the icon, when only the icon changed (see
+	 *                  {@link #writeFrame(PromptState, boolean)})
+	 */
+	private void drawPrompt(@NotNull PromptState promptState, boolean only_icon) {
+		if (passthrough)
+			return;
+
+		try {
+			lock.lock();
+			try {
+				if (!only_icon)
+					settleRepeats(); // the counter can't be written after the line is forgotten
+				if (statusLinePrefix != null)
+					writeStatusLine(promptState);
+				else
+					writeFrame(promptState, only_icon);
+				flushLocked();
+				last_redraw = System.nanoTime();
+				if (!only_icon) // the cursor may have been moved by something else (e.g. the user pressed enter)
+					repeated_line_len = -1;
+			} finally {
+				lock.unlock();
 			}
 		} catch (IOException ignored) {
 		} // just ignore the exception 🤞 it is nothing terribly bad
+	}
 
-		return this;
+	/**
+	 * Writes the icon and the prompt of the given state over the ones currently shown.
+	 * <p>
+	 * If only the icon changed and the new one takes the same number of columns as the old one, the prompt doesn't
+	 * need to be written again: the cursor is saved, moved to the beginning of the line to write the icon, and
+	 * restored. That is only done if it writes fewer bytes.
+	 * <p>
+	 * The cursor is saved and restored (ESC 7 and ESC 8) because its column is not tracked (see {@link #shown}), so
+	 * it can't be moved back with a relative movement. For the same reason, the whole icon is written, not only
+	 * the bytes that changed, and any change to the prompt (or to the width of the icon) rewrites the whole line.
+	 * <p>
+	 * Caller must hold {@link #lock}
+	 *
+	 * @param only_icon false to always write the whole frame (e.g. if the terminal may have changed, because of
+	 *                  user input)
+	 */
+	private void writeFrame(@NotNull PromptState next, boolean only_icon) throws IOException {
+		byte[] icon = next.statusIcon;
+		int icon_len = SAVE_CURSOR.length + 1 + icon.length + RESTORE_CURSOR.length;
+
+		if (only_icon && should_delete_prompt && next.hasSameLayout(shown) && icon_len < next.frame.length
+			&& icon_len <= lineBuffer.length) {
+			System.arraycopy(SAVE_CURSOR, 0, lineBuffer, 0, SAVE_CURSOR.length);
+			lineBuffer[SAVE_CURSOR.length] = '\r';
+			System.arraycopy(icon, 0, lineBuffer, SAVE_CURSOR.length + 1, icon.length);
+			System.arraycopy(RESTORE_CURSOR, 0, lineBuffer, SAVE_CURSOR.length + 1 + icon.length,
+				RESTORE_CURSOR.length);
+			out.write(lineBuffer, 0, icon_len);
+		} else {
+			out.write(next.frame); // \r places the cursor at the beginning
+		}
+
+		shown = next;
+		should_delete_prompt = true;
+		prompt_pending = false;
+	}
+
+	/**
+	 * @return true if the prompt has to be deleted before writing more output, i.e. the cursor is not at the
+	 * beginning of the line because of the prompt. If the prompt is empty, the cursor is already at the beginning
+	 * <p>
+	 * Caller must hold {@link #lock}
+	 */
+	private boolean shouldWriteCarriageReturn() {
+		return should_delete_prompt && shown.frame.length > 1;
 	}
 
 	/**
@@ -242,100 +857,683 @@ public class PromptOutputStream extends OutputStream {
 	 * This will place the cursor at the beginning of the line and write the prompt (and status),
 	 * so be careful as it may overwrite some bytes.
 	 * Preferably call this after a line feed (\n) so that doesn't happen
+	 * <p>
+	 * Unlike {@link #printPrompt(String)}, this always writes the whole prompt, so it can be used to show the
+	 * prompt again after something else has been written to the terminal (e.g. the user typed something)
 	 *
 	 * @return the same object (so you can use fluent pattern)
 	 */
 	public PromptOutputStream printPrompt() {
+		drawPrompt(state.get(), false);
+		return this;
+	}
+
+	/**
+	 * Creates a block of lines that are written together, with a single write, a single prompt and a single flush,
+	 * when the block is closed. Chars are encoded with UTF-8 (like the prompt)
+	 *
+	 * @return the new block. Close it to write it
+	 * @see PromptBlock
+	 */
+	public @NotNull PromptBlock block() {
+		return new PromptBlock(this, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Same as {@link #block()}, but chars are encoded with the given charset
+	 *
+	 * @param charset charset used to encode chars
+	 * @return the new block. Close it to write it
+	 */
+	public @NotNull PromptBlock block(@NotNull Charset charset) {
+		return new PromptBlock(this, charset);
+	}
+
+	/**
+	 * Prints the stack trace of the given throwable as a single block (see {@link #block()}). Lines printed by
+	 * other threads are not mixed with the stack trace, and the prompt is printed only once, after it
+	 *
+	 * @param throwable the throwable
+	 * @return the same object (so you can use fluent pattern)
+	 */
+	public PromptOutputStream printThrowable(@NotNull Throwable throwable) {
+		try (PromptBlock block = block()) {
+			throwable.printStackTrace(block);
+		}
+		return this;
+	}
+
+	/**
+	 * Subscribes to the lines printed to this stream (not the prompt), e.g. to show them somewhere else or to count
+	 * them.
+	 * <p>
+	 * Every line is copied into a pre-allocated ring, and the subscriber is called from its own thread. The stream
+	 * never waits for subscribers, so a slow subscriber may miss lines if it falls more than
+	 * {@value LineRing#DEFAULT_SIZE} lines behind (see {@link LineSubscription#getDroppedLines()})
+	 *
+	 * <p>
+	 * Exceptions thrown by the subscriber are ignored (they are only counted, see
+	 * {@link LineSubscription#getFailedLines()}), and the subscription goes on. They are not printed: the standard
+	 * error may be shared with this stream (see {@link PromptConsole}), so the subscriber would get its own stack
+	 * traces. Use {@link #subscribe(LineSubscriber, Consumer)} to handle them yourself
+	 *
+	 * @param subscriber called for every line printed after this call
+	 * @return the subscription. Close it to unsubscribe
+	 */
+	public @NotNull LineSubscription subscribe(@NotNull LineSubscriber subscriber) {
+		return subscribe(subscriber, e -> {
+		});
+	}
+
+	/**
+	 * Same as {@link #subscribe(LineSubscriber)}, but exceptions thrown by the subscriber are passed to the given
+	 * handler.
+	 * <p>
+	 * Don't print them to this stream (e.g. to the standard error, if it is shared with {@link PromptConsole}), the
+	 * subscriber would get them too
+	 *
+	 * @param subscriber   called for every line printed after this call
+	 * @param errorHandler called (from the thread of the subscription) with the exceptions thrown by the subscriber
+	 * @return the subscription. Close it to unsubscribe
+	 */
+	public @NotNull LineSubscription subscribe(
+		@NotNull LineSubscriber subscriber,
+		@NotNull Consumer<? super RuntimeException> errorHandler
+	) {
+		lock.lock();
 		try {
-			synchronized (out) {
-				out.write('\r'); // start writing at the beginning
-				out.write(statusIcon);
-				out.write(prompt);
-				out.flush();
+			LineRing ring = lineRing;
+			if (ring == null)
+				lineRing = ring = new LineRing(LineRing.DEFAULT_SIZE);
+			return ring.subscribe(subscriber, errorHandler);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the current status icon and prompt
+	 */
+	@NotNull PromptState state() {
+		return state.get();
+	}
+
+	/**
+	 * Replaces the state, if it is still the expected one, and redraws the prompt only if it is currently shown
+	 * (i.e. the line doesn't have any other output). Used by {@link Spinner}
+	 *
+	 * @param expected the state the caller has seen
+	 * @param next     the new state
+	 * @return false if the state was changed by someone else (or another thread is writing), and therefore it was
+	 * not replaced
+	 */
+	boolean replaceState(@NotNull PromptState expected, @NotNull PromptState next) {
+		try {
+			if (!lock.tryLock()) // it's run by the scheduler, which must not wait (see PromptScheduler)
+				return false;
+			try {
+				if (!state.compareAndSet(expected, next))
+					return false;
+				if (passthrough)
+					return true;
+
+				if (statusLinePrefix != null) {
+					writeStatusLine(next);
+					flushLocked();
+				} else if (should_delete_prompt) {
+					writeFrame(next, true);
+					flushLocked();
+				}
+			} finally {
+				lock.unlock();
 			}
 		} catch (IOException ignored) {
 		} // just ignore the exception 🤞 it is nothing terribly bad
 
-		return this;
+		return true;
 	}
 
 	@Override
 	public void write(int b) throws IOException {
-		synchronized (out) {
-			if (should_delete_prompt)
-				out.write('\r'); // start writing at the beginning
+		lock.lock();
+		try {
+			LineRing ring = lineRing;
+			if (ring != null)
+				ring.publish(b);
 
-			out.write(b);
-		}
+			if (passthrough) { // no prompt, but the lock is still needed so writes are not mixed
+				out.write(b);
+				return;
+			}
 
-		if (b == '\n') {
-			synchronized (out) {
-				out.write(statusIcon);
-				out.write(prompt);
-				out.flush();
-				should_delete_prompt = true;
+			if (statusLinePrefix != null) { // the prompt is not in the same line as the output
+				out.write(b);
+				if (flushPolicy.shouldFlush(1, b == '\n'))
+					flushLocked();
+				return;
 			}
-		} else
-			// no synchronization is added because the worst thing that can happen is just writing an extra
-			// \r to output
-			should_delete_prompt = false;
+
+			if (b != '\n') {
+				settleRepeats();
+				if (shouldWriteCarriageReturn())
+					out.write('\r'); // start writing at the beginning
+
+				out.write(b);
+				should_delete_prompt = false;
+				prompt_pending = false;
+				partial_line = true;
+				repeated_line_len = -1;
+				if (flushPolicy.shouldFlush(1, false))
+					flushLocked();
+				return;
+			}
+
+			writeLine(NEW_LINE, 0, 1);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public void write(byte @NotNull [] b) throws IOException {
-		synchronized (out) {
-			if (should_delete_prompt)
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte @NotNull [] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (len == 0)
+			return;
+
+		// only the last line can be followed by the prompt. Any prompt before that would be overwritten by the
+		// next line in the buffer
+		int last_new_line = NewLineScanner.lastIndexOf(b, off, off + len);
+		write(b, off, len, last_new_line == off + len - 1, last_new_line != -1);
+	}
+
+	/**
+	 * Same as {@link #write(byte[], int, int)}, but the caller already knows where the new lines are, so the
+	 * bytes are not scanned again (e.g. {@link PromptPrintStream} finds them while the chars are being encoded)
+	 *
+	 * @param ends_line    true if the last byte is a new line
+	 * @param has_new_line true if there is at least one new line in the bytes
+	 */
+	void write(byte @NotNull [] b, int off, int len, boolean ends_line, boolean has_new_line) throws IOException {
+		if (len == 0)
+			return;
+
+		lock.lock();
+		try {
+			publish(b, off, len);
+			if (passthrough) { // no prompt, but the lock is still needed so writes are not mixed
+				out.write(b, off, len);
+				return;
+			}
+
+			if (statusLinePrefix != null) { // the prompt is not in the same line as the output
+				out.write(b, off, len);
+				if (flushPolicy.shouldFlush(len, has_new_line))
+					flushLocked();
+				return;
+			}
+
+			if (ends_line) {
+				writeLine(b, off, len);
+				return;
+			}
+
+			// the buffer ends with an incomplete line, so the cursor is not at the beginning of a line, and the
+			// prompt can't be shown
+			settleRepeats();
+			if (shouldWriteCarriageReturn())
 				out.write('\r'); // start writing at the beginning
 
-			out.write(b);
+			out.write(b, off, len);
+			should_delete_prompt = false;
+			prompt_pending = false;
+			partial_line = true;
+			repeated_line_len = -1;
+			if (flushPolicy.shouldFlush(len, has_new_line))
+				flushLocked();
+		} finally {
+			lock.unlock();
 		}
+	}
 
-		if (b[b.length - 1] == '\n') {
-			synchronized (out) {
-				out.write(statusIcon);
-				out.write(prompt);
-				out.flush();
-				should_delete_prompt = true;
+	/**
+	 * Writes a block of lines followed by the prompt (see {@link PromptBlock}).
+	 * <p>
+	 * The byte before off is spare, so the \r (if needed) is written there, and the prompt is copied after the
+	 * block (the buffer grows if there is no room), so everything is written with a single call, no matter how big
+	 * the block is
+	 *
+	 * @param buf buffer with the block. It may be modified (but only outside off and off + len)
+	 * @param off offset of the block. Must be at least 1
+	 */
+	void writeBlock(byte @NotNull [] buf, int off, int len) throws IOException {
+		if (len == 0)
+			return;
+
+		if (passthrough || buf[off + len - 1] != '\n') {
+			write(buf, off, len);
+			return;
+		}
+
+		lock.lock();
+		try {
+			if (statusLinePrefix != null || promptDelay != 0) { // the prompt is not written after the block
+				write(buf, off, len, true, true);
+				return;
 			}
-		} else
-			// no synchronization is added because the worst thing that can happen is just writing an extra
-			// \r to output
-			should_delete_prompt = false;
+
+			publish(buf, off, len);
+			settleRepeats();
+			PromptState promptState = state.get();
+			byte[] frame = promptState.frame;
+			int end = off + len;
+			int frame_len = frame.length - 1; // the cursor is already at the beginning, so \r is not needed
+			if (buf.length < end + frame_len)
+				buf = Arrays.copyOf(buf, end + frame_len);
+			System.arraycopy(frame, 1, buf, end, frame_len);
+
+			int start = off;
+			if (shouldWriteCarriageReturn())
+				buf[--start] = '\r'; // start writing at the beginning
+
+			out.write(buf, start, end + frame_len - start);
+			shown = promptState;
+			should_delete_prompt = true;
+			prompt_pending = false;
+			partial_line = false;
+			repeated_line_len = -1;
+
+			if (flushPolicy.shouldFlush(len, true))
+				flushLocked();
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	@Override
-	public void write(byte @NotNull [] b, int off, int len) throws IOException {
-		synchronized (out) {
-			if (should_delete_prompt)
-				out.write('\r'); // start writing at the beginning
+	/**
+	 * Writes the given bytes to another stream that is shown in the same terminal (e.g. the standard error), so the
+	 * prompt is not left in the middle of them. Used by {@link PromptConsole}
+	 * <p>
+	 * The prompt is deleted (if it is shown), the bytes are written and flushed, and, if they end with a new line,
+	 * the prompt is written again (only once, no matter how many lines there are). In passthrough mode, the bytes
+	 * are just written
+	 * <p>
+	 * The underlying output stream is always flushed before writing to the other stream, so the output of both
+	 * streams is shown in the order it was written
+	 *
+	 * @param other the other stream. It is always flushed, otherwise its output may be shown after the prompt
+	 */
+	void writeTo(@NotNull OutputStream other, byte @NotNull [] b, int off, int len) throws IOException {
+		if (len == 0)
+			return;
+
+		lock.lock();
+		try {
+			publish(b, off, len);
+			if (passthrough) { // no prompt, but the lock is still needed so writes are not mixed
+				flushLocked();
+				other.write(b, off, len);
+				other.flush(); // or the next bytes written to the output could get there first
+				return;
+			}
+
+			if (statusLinePrefix != null) { // the prompt is not in the same line as the output
+				flushLocked();
+				other.write(b, off, len);
+				other.flush();
+				return;
+			}
+
+			settleRepeats();
+			if (shouldWriteCarriageReturn()) {
+				out.write(CLEAR_LINE);
+				should_delete_prompt = false;
+			}
+			// everything written before (including the deletion of the prompt) must reach the terminal before the
+			// other stream writes to it, even if the flush policy would hold it
+			flushLocked();
+
+			other.write(b, off, len);
+			other.flush();
+			repeated_line_len = -1;
+
+			if (b[off + len - 1] != '\n') { // the cursor is not at the beginning of a line, the prompt can't be shown
+				should_delete_prompt = false;
+				prompt_pending = false;
+				partial_line = true;
+				return;
+			}
+			partial_line = false;
 
+			if (promptDelay != 0) {
+				deferPrompt();
+				return;
+			}
+
+			PromptState promptState = state.get();
+			out.write(promptState.frame, 1, promptState.frame.length - 1); // the cursor is already at the beginning
+			shown = promptState;
+			should_delete_prompt = true;
+			flushLocked();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the given bytes (which must end with a new line, but may contain more lines) followed by the prompt,
+	 * and flushes the output if the {@link #flushPolicy} says so.
+	 * <p>
+	 * If the \r, the bytes and the prompt fit into {@link #lineBuffer}, they are written with a single call to
+	 * the underlying output stream
+	 * <p>
+	 * Caller must hold {@link #lock}
+	 */
+	private void writeLine(byte @NotNull [] b, int off, int len) throws IOException {
+		if (repeatWindow != 0 && writeRepeatedLine(b, off, len))
+			return;
+
+		PromptState promptState = state.get();
+		byte[] frame = promptState.frame;
+		int cr_len = shouldWriteCarriageReturn() ? 1 : 0;
+		boolean deferred = promptDelay != 0;
+		// the cursor is already at the beginning, so \r is not needed
+		int frame_len = deferred ? 0 : frame.length - 1;
+
+		if (cr_len + len + frame_len <= lineBuffer.length) {
+			System.arraycopy(b, off, lineBuffer, cr_len, len);
+			if (cr_len == 1)
+				lineBuffer[0] = '\r'; // start writing at the beginning
+			System.arraycopy(frame, 1, lineBuffer, cr_len + len, frame_len);
+			out.write(lineBuffer, 0, cr_len + len + frame_len);
+		} else {
+			if (cr_len == 1)
+				out.write('\r'); // start writing at the beginning
 			out.write(b, off, len);
+			out.write(frame, 1, frame_len);
 		}
 
-		if (b[off + len - 1] == '\n') {
-			synchronized (out) {
-				out.write(statusIcon);
-				out.write(prompt);
-				out.flush();
+		shown = promptState;
+		should_delete_prompt = !deferred;
+		partial_line = false;
+		if (deferred)
+			deferPrompt();
+
+		if (flushPolicy.shouldFlush(len, true))
+			flushLocked();
+	}
+
+	/**
+	 * If the last line in the given bytes is the same as the previous line, and it is the only one, rewrites the
+	 * previous line with the number of times it has been repeated (and the prompt after it). Otherwise, remembers the
+	 * last line, so it can be compared with the next one
+	 * <p>
+	 * Caller must hold {@link #lock}
+	 *
+	 * @return true if the line was collapsed, false if it must be written as usual
+	 */
+	private boolean writeRepeatedLine(byte @NotNull [] b, int off, int len) throws IOException {
+		int end = off + len - 1; // the new line
+		int last_new_line = NewLineScanner.lastIndexOf(b, off, end);
+		int line_start = last_new_line == -1 ? off : last_new_line + 1;
+		if (line_start == off && partial_line) { // the beginning of the line was written before, it's not here
+			settleRepeats();
+			repeated_line_len = -1;
+			return false;
+		}
+
+		int line_end = end > line_start && b[end - 1] == '\r' ? end - 1 : end;
+		int line_len = line_end - line_start;
+		if (line_len == 0 || line_len > repeatedLine.length) {
+			settleRepeats();
+			repeated_line_len = -1;
+			return false;
+		}
+
+		int hash = 1;
+		for (int i = line_start; i < line_end; ++i)
+			hash = 31 * hash + b[i];
+
+		if (line_start == off && line_len == repeated_line_len && hash == repeated_line_hash
+			&& Arrays.equals(b, line_start, line_end, repeatedLine, 0, line_len)) {
+			int count = repeats + 1;
+			long interval = redrawInterval;
+			// the first repeat is written right away
+			long delay = interval == 0 || count == 2 ? 0 : last_repeats_draw + interval - System.nanoTime();
+			if (delay > 0) { // the counter was written recently, write it later
+				repeats = count;
+				repeats_pending = true;
+				if (!repeats_scheduled) {
+					repeats_scheduled = true;
+					PromptScheduler.schedule(pendingRepeatsTask, delay);
+				}
+				return true;
+			}
+
+			if (writeCollapsedLine(count)) {
+				if (flushPolicy.shouldFlush(len, true))
+					flushLocked();
+				return true;
+			}
+		}
+
+		settleRepeats(); // the previous line is not repeated anymore, show how many times it was
+		System.arraycopy(b, line_start, repeatedLine, 0, line_len);
+		repeated_line_len = line_len;
+		repeated_line_hash = hash;
+		repeats = 1;
+		return false;
+	}
+
+	/**
+	 * Writes the counter of repeated lines, if it hasn't been written yet, before something else is written
+	 * <p>
+	 * Caller must hold {@link #lock}
+	 */
+	private void settleRepeats() throws IOException {
+		if (repeats_pending)
+			writeCollapsedLine(repeats);
+	}
+
+	/**
+	 * Writes the counter of repeated lines, if it hasn't been written yet. Otherwise, it checks again later.
+	 * <p>
+	 * This is run by the scheduler
+	 */
+	private void printPendingRepeats() {
+		try {
+			if (!lock.tryLock()) { // another thread is writing, don't wait for it (see PromptScheduler)
+				PromptScheduler.schedule(pendingRepeatsTask, PromptScheduler.RETRY_DELAY);
+				return;
+			}
+			try {
+				repeats_scheduled = false;
+				if (!repeats_pending)
+					return;
+
+				long remaining = last_repeats_draw + redrawInterval - System.nanoTime();
+				if (redrawInterval != 0 && remaining > 0) {
+					repeats_scheduled = true;
+					PromptScheduler.schedule(pendingRepeatsTask, remaining);
+					return;
+				}
+
+				writeCollapsedLine(repeats);
+				flushLocked();
+			} finally {
+				lock.unlock();
+			}
+		} catch (IOException ignored) {
+		} // just ignore the exception 🤞 it is nothing terribly bad
+	}
+
+	/**
+	 * Moves the cursor to the previous row, where {@link #repeatedLine} is, and writes it again with the number of
+	 * times it has been repeated, followed by a new line and the prompt
+	 * <p>
+	 * Caller must hold {@link #lock}
+	 *
+	 * @param count number of times the line has been repeated
+	 * @return false if it doesn't fit in {@link #lineBuffer} (and nothing was written)
+	 */
+	private boolean writeCollapsedLine(int count) throws IOException {
+		repeats_pending = false;
+		if (repeated_line_len < 0) // the line was forgotten, there is nothing to rewrite
+			return false;
+
+		PromptState promptState = state.get();
+		boolean deferred = promptDelay != 0;
+		int frame_len = deferred ? 0 : promptState.frame.length - 1;
+		int digits = 1;
+		for (int n = count; n >= 10; n /= 10)
+			++digits;
+
+		// \033[1A \r line " (x" count ")" \n prompt
+		int total = CURSOR_UP.length + 1 + repeated_line_len + 3 + digits + 2 + frame_len;
+		if (total > lineBuffer.length)
+			return false;
+
+		int pos = 0;
+		System.arraycopy(CURSOR_UP, 0, lineBuffer, pos, CURSOR_UP.length);
+		pos += CURSOR_UP.length;
+		lineBuffer[pos++] = '\r';
+		System.arraycopy(repeatedLine, 0, lineBuffer, pos, repeated_line_len);
+		pos += repeated_line_len;
+		lineBuffer[pos++] = ' ';
+		lineBuffer[pos++] = '(';
+		lineBuffer[pos++] = 'x';
+		pos += digits;
+		for (int i = pos - 1, n = count; i >= pos - digits; --i, n /= 10)
+			lineBuffer[i] = (byte) ('0' + n % 10);
+		lineBuffer[pos++] = ')';
+		lineBuffer[pos++] = '\n';
+		System.arraycopy(promptState.frame, 1, lineBuffer, pos, frame_len);
+		pos += frame_len;
+		out.write(lineBuffer, 0, pos);
+
+		repeats = count;
+		last_repeats_draw = System.nanoTime();
+		shown = promptState;
+		should_delete_prompt = !deferred;
+		if (deferred)
+			deferPrompt();
+		return true;
+	}
+
+	/**
+	 * Remembers the prompt should be written once the output is idle, and schedules a task to write it
+	 * (see {@link #setPromptDelay(Duration)})
+	 * <p>
+	 * Caller must hold {@link #lock}
+	 */
+	private void deferPrompt() {
+		prompt_pending = true;
+		last_line = System.nanoTime();
+		if (!prompt_scheduled) {
+			prompt_scheduled = true;
+			PromptScheduler.schedule(pendingPromptTask, promptDelay);
+		}
+	}
+
+	/**
+	 * Writes the deferred prompt if the output has been idle long enough. Otherwise, it checks again later.
+	 * <p>
+	 * This is run by the scheduler
+	 */
+	private void printPendingPrompt() {
+		try {
+			if (!lock.tryLock()) { // another thread is writing, don't wait for it (see PromptScheduler)
+				PromptScheduler.schedule(pendingPromptTask, PromptScheduler.RETRY_DELAY);
+				return;
+			}
+			try {
+				prompt_scheduled = false;
+				// something else was written (or the prompt was already printed)
+				if (!prompt_pending || passthrough)
+					return;
+
+				long remaining = last_line + promptDelay - System.nanoTime();
+				if (promptDelay != 0 && remaining > 0) { // another line was written, wait a bit more
+					prompt_scheduled = true;
+					PromptScheduler.schedule(pendingPromptTask, remaining);
+					return;
+				}
+
+				PromptState promptState = state.get();
+				out.write(promptState.frame, 1, promptState.frame.length - 1); // the cursor is already at the beginning
+				shown = promptState;
+				prompt_pending = false;
 				should_delete_prompt = true;
+				flushLocked();
+			} finally {
+				lock.unlock();
 			}
-		} else
-			// no synchronization is added because the worst thing that can happen is just writing an extra
-			// \r to output
-			should_delete_prompt = false;
+		} catch (IOException ignored) {
+		} // just ignore the exception 🤞 it is nothing terribly bad
+	}
+
+	/**
+	 * Publishes the lines in the given bytes to the subscribers, if any
+	 * <p>
+	 * Caller must hold {@link #lock}
+	 */
+	private void publish(byte @NotNull [] b, int off, int len) {
+		LineRing ring = lineRing;
+		if (ring != null)
+			ring.publish(b, off, len);
+	}
+
+	/**
+	 * Flushes the underlying output stream and lets the {@link #flushPolicy} know about it
+	 * <p>
+	 * Caller must hold {@link #lock}
+	 */
+	private void flushLocked() throws IOException {
+		out.flush();
+		flushPolicy.flushed();
 	}
 
 	@Override
 	public void flush() throws IOException {
-		synchronized (out) {
-			out.flush();
+		lock.lock();
+		try {
+			flushLocked();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes the output, unless another thread holds the lock. Used by the scheduler, which must not wait for it
+	 * (see {@link PromptScheduler})
+	 *
+	 * @return false if the lock was taken, and nothing was flushed
+	 */
+	boolean tryFlush() throws IOException {
+		if (!lock.tryLock())
+			return false;
+		try {
+			flushLocked();
+			return true;
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	@Override
 	public void close() throws IOException {
-		synchronized (out) {
+		lock.lock();
+		try {
+			LineRing ring = lineRing;
+			if (ring != null)
+				ring.close(); // subscribers stop once they read the lines printed so far
 			out.close();
+		} finally {
+			lock.unlock();
 		}
 	}
 }
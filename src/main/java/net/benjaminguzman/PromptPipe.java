@@ -0,0 +1,361 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-memory pipe, to read the output of a {@link PromptOutputStream} (or anything else) in the same process, e.g.
+ * in tests or to show it in a GUI.
+ * <p>
+ * It does the same as {@link java.io.PipedOutputStream} and {@link java.io.PipedInputStream}, but it is not
+ * synchronized, and a blocked reader (or writer) is woken up as soon as there is data (or space), instead of polling
+ * every second. Also, it doesn't care which threads write or read, so it never fails with "Write end dead".
+ * <p>
+ * Bytes are kept in a fixed-size ring buffer. The writer waits if it is full, and the reader waits if it is
+ * empty ({@link #getInputStream()}), or uses {@link #poll(byte[], int, int)} to get whatever is available without
+ * waiting.
+ * <p>
+ * It is single-producer/single-consumer: only one thread may write at a time, and only one thread may read at a
+ * time. Different threads may write, one after another, if something else orders them (e.g. a
+ * {@link PromptOutputStream} writes while holding its lock). The same goes for readers.
+ * <p>
+ * To use it, simply do something like this: {@code
+ * PromptPipe pipe = new PromptPipe();
+ * PromptOutputStream promptOutputStream = new PromptOutputStream(pipe.getOutputStream());
+ * BufferedReader reader = new BufferedReader(new InputStreamReader(pipe.getInputStream()));
+ * }
+ */
+public class PromptPipe {
+	/**
+	 * Default capacity of the buffer, in bytes
+	 */
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+	/**
+	 * The ring buffer. Its length is a power of 2, so positions are mapped to indices with {@link #mask}
+	 */
+	private final byte @NotNull [] ring;
+
+	private final int mask;
+
+	/**
+	 * Position up to which bytes have been written. Only the writer changes it
+	 */
+	private volatile long head;
+
+	/**
+	 * Position up to which bytes have been read. Only the reader changes it
+	 */
+	private volatile long tail;
+
+	/**
+	 * The reader, if it is (or is about to be) parked waiting for data
+	 */
+	private volatile @Nullable Thread waitingReader;
+
+	/**
+	 * The writer, if it is (or is about to be) parked waiting for space
+	 */
+	private volatile @Nullable Thread waitingWriter;
+
+	private volatile boolean writer_closed;
+
+	private volatile boolean reader_closed;
+
+	private final @NotNull OutputStream outputStream = new PipeOutputStream();
+
+	private final @NotNull InputStream inputStream = new PipeInputStream();
+
+	/**
+	 * Creates a new pipe with a buffer of {@link #DEFAULT_CAPACITY} bytes
+	 */
+	public PromptPipe() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new pipe
+	 *
+	 * @param capacity size of the buffer in bytes. It is rounded up to a power of 2
+	 */
+	public PromptPipe(int capacity) {
+		if (capacity <= 0 || capacity > 1 << 30)
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+
+		this.ring = new byte[capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1];
+		this.mask = ring.length - 1;
+	}
+
+	/**
+	 * @return the size of the buffer in bytes
+	 */
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	/**
+	 * @return the write end of the pipe. Writes wait if the buffer is full. Closing it makes the reader get the end
+	 * of the stream (once everything is read)
+	 */
+	public @NotNull OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/**
+	 * @return the read end of the pipe. Reads wait until there is data or the write end is closed. Closing it makes
+	 * writes fail
+	 */
+	public @NotNull InputStream getInputStream() {
+		return inputStream;
+	}
+
+	/**
+	 * Reads the bytes that are available, without waiting
+	 *
+	 * @param b   buffer where bytes are copied
+	 * @param off offset in the buffer
+	 * @param len max number of bytes to read
+	 * @return number of bytes read (0 if there is nothing to read), or -1 if the write end is closed and everything
+	 * has been read
+	 * @throws IOException if the read end is closed
+	 */
+	public int poll(byte @NotNull [] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (reader_closed)
+			throw new IOException("Stream closed");
+		if (len == 0)
+			return 0;
+
+		long start = tail;
+		long available = head - start;
+		if (available == 0) {
+			if (!writer_closed)
+				return 0;
+
+			available = head - start; // the writer updates the head before closing
+			if (available == 0)
+				return -1;
+		}
+
+		int n = (int) Math.min(len, available);
+		int index = (int) start & mask;
+		int first = Math.min(n, ring.length - index);
+		System.arraycopy(ring, index, b, off, first);
+		System.arraycopy(ring, 0, b, off + first, n - first); // part that wraps around, if any
+
+		tail = start + n;
+		wakeWriter();
+		return n;
+	}
+
+	/**
+	 * Waits until there is data to read, or the write end is closed
+	 */
+	private void awaitData() throws IOException {
+		for (int spins = 0; spins < 100; ++spins) {
+			if (head != tail || writer_closed)
+				return;
+			Thread.onSpinWait();
+		}
+
+		waitingReader = Thread.currentThread();
+		if (head == tail && !writer_closed) // check again, the writer may have missed the thread
+			LockSupport.park(this);
+		waitingReader = null;
+
+		if (Thread.currentThread().isInterrupted())
+			throw new InterruptedIOException("Interrupted while waiting for data");
+	}
+
+	/**
+	 * Waits until there is space to write, or the read end is closed
+	 */
+	private void awaitSpace() throws IOException {
+		for (int spins = 0; spins < 100; ++spins) {
+			if (head - tail < ring.length || reader_closed)
+				return;
+			Thread.onSpinWait();
+		}
+
+		waitingWriter = Thread.currentThread();
+		if (head - tail == ring.length && !reader_closed) // check again, the reader may have missed the thread
+			LockSupport.park(this);
+		waitingWriter = null;
+
+		if (Thread.currentThread().isInterrupted())
+			throw new InterruptedIOException("Interrupted while waiting for space");
+	}
+
+	/**
+	 * Unparks the reader, if it is waiting.
+	 * <p>
+	 * The field is cleared so the next writes don't unpark it again (which is expensive) before it wakes up
+	 */
+	private void wakeReader() {
+		Thread reader = waitingReader;
+		if (reader != null) {
+			waitingReader = null;
+			LockSupport.unpark(reader);
+		}
+	}
+
+	/**
+	 * Same as {@link #wakeReader()}, for the writer
+	 */
+	private void wakeWriter() {
+		Thread writer = waitingWriter;
+		if (writer != null) {
+			waitingWriter = null;
+			LockSupport.unpark(writer);
+		}
+	}
+
+	private class PipeOutputStream extends OutputStream {
+		@Override
+		public void write(int b) throws IOException {
+			while (true) {
+				ensureOpen();
+				long start = head;
+				if (start - tail == ring.length) {
+					awaitSpace();
+					continue;
+				}
+
+				ring[(int) start & mask] = (byte) b;
+				head = start + 1;
+				wakeReader();
+				return;
+			}
+		}
+
+		@Override
+		public void write(byte @NotNull [] b, int off, int len) throws IOException {
+			Objects.checkFromIndexSize(off, len, b.length);
+
+			while (len > 0) {
+				ensureOpen();
+				long start = head;
+				int free = (int) (ring.length - (start - tail));
+				if (free == 0) {
+					awaitSpace();
+					continue;
+				}
+
+				int n = Math.min(len, free);
+				int index = (int) start & mask;
+				int first = Math.min(n, ring.length - index);
+				System.arraycopy(b, off, ring, index, first);
+				System.arraycopy(b, off + first, ring, 0, n - first); // part that wraps around, if any
+
+				head = start + n;
+				wakeReader();
+				off += n;
+				len -= n;
+			}
+		}
+
+		private void ensureOpen() throws IOException {
+			if (writer_closed)
+				throw new IOException("Stream closed");
+			if (reader_closed)
+				throw new IOException("Pipe closed");
+		}
+
+		/**
+		 * Bytes are visible to the reader as soon as they are written, so there is nothing to flush
+		 */
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+			writer_closed = true;
+			wakeReader();
+		}
+	}
+
+	private class PipeInputStream extends InputStream {
+		@Override
+		public int read() throws IOException {
+			while (true) { // same as poll, but for a single byte, without copying it into an array
+				if (reader_closed)
+					throw new IOException("Stream closed");
+
+				long start = tail;
+				if (head == start) {
+					if (!writer_closed) {
+						awaitData();
+						continue;
+					}
+					if (head == start) // the writer updates the head before closing
+						return -1;
+				}
+
+				int b = ring[(int) start & mask] & 0xff;
+				tail = start + 1;
+				wakeWriter();
+				return b;
+			}
+		}
+
+		@Override
+		public int read(byte @NotNull [] b, int off, int len) throws IOException {
+			Objects.checkFromIndexSize(off, len, b.length);
+			if (len == 0)
+				return 0;
+
+			while (true) {
+				int n = poll(b, off, len);
+				if (n != 0)
+					return n;
+				awaitData();
+			}
+		}
+
+		@Override
+		public int available() throws IOException {
+			if (reader_closed)
+				throw new IOException("Stream closed");
+			return (int) (head - tail);
+		}
+
+		@Override
+		public void close() {
+			reader_closed = true;
+			wakeWriter();
+		}
+	}
+}
@@ -0,0 +1,441 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+/**
+ * {@link PrintStream} that prints a prompt after any new line is printed.
+ * <p>
+ * It does the same as {@code new PrintStream(new PromptOutputStream(System.out))}, but without wrapping a
+ * {@link PrintStream} inside another one: chars are encoded once, straight into a reusable buffer, the lock is
+ * taken once per call, and the bytes are written to the raw output stream (e.g. the standard output file
+ * descriptor).
+ * <p>
+ * Whether the prompt should be printed is decided by looking at the chars, so encoded bytes are not scanned for
+ * new lines.
+ * <p>
+ * The prompt, the status icon and everything else about how it is shown are configured in the
+ * {@link PromptOutputStream} (see {@link #getPromptOutputStream()}). To use it, simply do something like this:
+ * {@code
+ * PromptPrintStream out = PromptPrintStream.stdout();
+ * out.getPromptOutputStream().setPrompt("> ");
+ * System.setOut(out);
+ * }
+ * <p>
+ * Every call to a print method (println included) is written with a single call to the underlying output stream,
+ * unless it is bigger than the internal buffer.
+ * <p>
+ * As any {@link PrintStream}, this class never throws {@link IOException}, use {@link #checkError()} instead.
+ * <p>
+ * This class is thread-safe.
+ */
+public class PromptPrintStream extends PrintStream {
+	private final @NotNull PromptOutputStream promptOut;
+
+	/**
+	 * Guarded by {@link PromptOutputStream#lock}
+	 */
+	private final @NotNull LineEncoder encoder;
+
+	private final @NotNull String lineSeparator = System.lineSeparator();
+
+	private final @NotNull Charset charset;
+
+	/**
+	 * Written while holding {@link PromptOutputStream#lock}. Volatile because {@link #flush()} doesn't take the lock
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new print stream that writes to the given output stream using the default charset
+	 *
+	 * @param out the output stream. It should not be buffered (no need for extra buffering)
+	 */
+	public PromptPrintStream(@NotNull OutputStream out) {
+		this(out, Charset.defaultCharset());
+	}
+
+	/**
+	 * Creates a new print stream that writes to the given output stream
+	 *
+	 * @param out     the output stream. It should not be buffered (no need for extra buffering)
+	 * @param charset charset used to encode chars
+	 */
+	public PromptPrintStream(@NotNull OutputStream out, @NotNull Charset charset) {
+		this(new PromptOutputStream(out), charset);
+	}
+
+	/**
+	 * Creates a new print stream that writes to the given prompt output stream, so the prompt is shared with
+	 * whatever else writes to it (e.g. a {@link PromptWriter} or {@link PromptConsole})
+	 *
+	 * @param promptOut the prompt output stream
+	 * @param charset   charset used to encode chars
+	 */
+	public PromptPrintStream(@NotNull PromptOutputStream promptOut, @NotNull Charset charset) {
+		super(promptOut, false);
+		this.promptOut = promptOut;
+		this.encoder = new LineEncoder(promptOut, charset);
+		this.charset = charset;
+	}
+
+	/**
+	 * @return a new print stream that writes to the standard output file descriptor. If it is not a terminal, the
+	 * prompt is not printed (see {@link PromptOutputStream#isTerminal()})
+	 */
+	public static @NotNull PromptPrintStream stdout() {
+		return new PromptPrintStream(
+			new PromptOutputStream(new FileOutputStream(FileDescriptor.out))
+				.setPassthrough(!PromptOutputStream.isTerminal()),
+			Charset.defaultCharset()
+		);
+	}
+
+	/**
+	 * @return a new print stream that writes to the standard error file descriptor. If it is not a terminal, the
+	 * prompt is not printed (see {@link PromptOutputStream#isTerminal()})
+	 */
+	public static @NotNull PromptPrintStream stderr() {
+		return new PromptPrintStream(
+			new PromptOutputStream(new FileOutputStream(FileDescriptor.err))
+				.setPassthrough(!PromptOutputStream.isTerminal()),
+			Charset.defaultCharset()
+		);
+	}
+
+	/**
+	 * @return the stream with the prompt. Use it to change the prompt, the status icon, the flush policy...
+	 */
+	public @NotNull PromptOutputStream getPromptOutputStream() {
+		return promptOut;
+	}
+
+	/**
+	 * Creates a block of lines that are written together, see {@link PromptOutputStream#block()}. Chars are encoded
+	 * with the charset of this stream
+	 *
+	 * @return the new block. Close it to write it
+	 */
+	public @NotNull PromptBlock block() {
+		return promptOut.block(charset);
+	}
+
+	/**
+	 * Prints the stack trace of the given throwable as a single block, see
+	 * {@link PromptOutputStream#printThrowable(Throwable)}.
+	 * <p>
+	 * Unlike {@code throwable.printStackTrace(this)}, which prints (and writes the prompt after) every line
+	 */
+	public void printThrowable(@NotNull Throwable throwable) {
+		PromptBlock block = block();
+		throwable.printStackTrace(block);
+		block.close();
+		if (block.checkError())
+			setError();
+	}
+
+	/**
+	 * Appends the given text and, optionally, a line separator, and writes it with a single call to the underlying
+	 * output stream
+	 */
+	private void print(@NotNull CharSequence csq, int start, int end, boolean new_line) {
+		promptOut.lock.lock();
+		try {
+			if (closed) {
+				setError();
+				return;
+			}
+			encoder.append(csq, start, end);
+			if (new_line)
+				encoder.append(lineSeparator, 0, lineSeparator.length());
+			encoder.drain();
+		} catch (InterruptedIOException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			setError();
+		} finally {
+			promptOut.lock.unlock();
+		}
+	}
+
+	/**
+	 * Same as {@link #print(CharSequence, int, int, boolean)} but for char arrays
+	 */
+	private void print(char @NotNull [] cbuf, boolean new_line) {
+		promptOut.lock.lock();
+		try {
+			if (closed) {
+				setError();
+				return;
+			}
+			encoder.append(cbuf, 0, cbuf.length);
+			if (new_line)
+				encoder.append(lineSeparator, 0, lineSeparator.length());
+			encoder.drain();
+		} catch (InterruptedIOException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			setError();
+		} finally {
+			promptOut.lock.unlock();
+		}
+	}
+
+	private void print(@NotNull String s, boolean new_line) {
+		print(s, 0, s.length(), new_line);
+	}
+
+	@Override
+	public void write(int b) {
+		promptOut.lock.lock();
+		try {
+			if (closed) {
+				setError();
+				return;
+			}
+			encoder.drain(); // keep the order
+			promptOut.write(b);
+		} catch (InterruptedIOException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			setError();
+		} finally {
+			promptOut.lock.unlock();
+		}
+	}
+
+	@Override
+	public void write(byte @NotNull [] buf, int off, int len) {
+		promptOut.lock.lock();
+		try {
+			if (closed) {
+				setError();
+				return;
+			}
+			encoder.drain(); // keep the order
+			promptOut.write(buf, off, len);
+		} catch (InterruptedIOException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			setError();
+		} finally {
+			promptOut.lock.unlock();
+		}
+	}
+
+	@Override
+	public void print(boolean b) {
+		print(String.valueOf(b), false);
+	}
+
+	@Override
+	public void print(char c) {
+		promptOut.lock.lock();
+		try {
+			if (closed) {
+				setError();
+				return;
+			}
+			encoder.append(c);
+			encoder.drain();
+		} catch (InterruptedIOException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			setError();
+		} finally {
+			promptOut.lock.unlock();
+		}
+	}
+
+	@Override
+	public void print(int i) {
+		print(String.valueOf(i), false);
+	}
+
+	@Override
+	public void print(long l) {
+		print(String.valueOf(l), false);
+	}
+
+	@Override
+	public void print(float f) {
+		print(String.valueOf(f), false);
+	}
+
+	@Override
+	public void print(double d) {
+		print(String.valueOf(d), false);
+	}
+
+	@Override
+	public void print(char @NotNull [] s) {
+		print(s, false);
+	}
+
+	@Override
+	public void print(@Nullable String s) {
+		print(String.valueOf(s), false);
+	}
+
+	@Override
+	public void print(@Nullable Object obj) {
+		print(String.valueOf(obj), false);
+	}
+
+	@Override
+	public void println() {
+		print(lineSeparator, false);
+	}
+
+	@Override
+	public void println(boolean x) {
+		print(String.valueOf(x), true);
+	}
+
+	@Override
+	public void println(char x) {
+		promptOut.lock.lock();
+		try {
+			if (closed) {
+				setError();
+				return;
+			}
+			encoder.append(x);
+			encoder.append(lineSeparator, 0, lineSeparator.length());
+			encoder.drain();
+		} catch (InterruptedIOException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			setError();
+		} finally {
+			promptOut.lock.unlock();
+		}
+	}
+
+	@Override
+	public void println(int x) {
+		print(String.valueOf(x), true);
+	}
+
+	@Override
+	public void println(long x) {
+		print(String.valueOf(x), true);
+	}
+
+	@Override
+	public void println(float x) {
+		print(String.valueOf(x), true);
+	}
+
+	@Override
+	public void println(double x) {
+		print(String.valueOf(x), true);
+	}
+
+	@Override
+	public void println(char @NotNull [] x) {
+		print(x, true);
+	}
+
+	@Override
+	public void println(@Nullable String x) {
+		print(String.valueOf(x), true);
+	}
+
+	@Override
+	public void println(@Nullable Object x) {
+		print(String.valueOf(x), true);
+	}
+
+	@Override
+	public @NotNull PromptPrintStream append(@Nullable CharSequence csq) {
+		if (csq == null)
+			csq = "null";
+		print(csq, 0, csq.length(), false);
+		return this;
+	}
+
+	@Override
+	public @NotNull PromptPrintStream append(@Nullable CharSequence csq, int start, int end) {
+		if (csq == null)
+			csq = "null";
+		Objects.checkFromToIndex(start, end, csq.length());
+		print(csq, start, end, false);
+		return this;
+	}
+
+	@Override
+	public @NotNull PromptPrintStream append(char c) {
+		print(c);
+		return this;
+	}
+
+	@Override
+	public void flush() {
+		if (closed) // nothing left to flush (PrintStream.close() also ends up here)
+			return;
+		try {
+			promptOut.flush();
+		} catch (InterruptedIOException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			setError();
+		}
+	}
+
+	/**
+	 * Writes the chars that are left and closes the underlying stream. Anything printed after it is discarded and
+	 * {@link #checkError()} returns true, as with any other {@link PrintStream}
+	 */
+	@Override
+	public void close() {
+		promptOut.lock.lock();
+		try {
+			if (closed)
+				return;
+			closed = true;
+			encoder.finish();
+		} catch (IOException e) {
+			setError();
+		} finally {
+			promptOut.lock.unlock();
+		}
+
+		// closes promptOut. It is called without the lock because PrintStream takes its monitor first (e.g. printf)
+		super.close();
+	}
+}
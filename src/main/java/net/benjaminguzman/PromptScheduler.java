@@ -0,0 +1,111 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the timer thread (and the worker threads that run the tasks) shared by all the streams in the JVM.
+ * <p>
+ * The threads are daemons, so they do not prevent the JVM from exiting, and they are only created the first time a
+ * task is scheduled.
+ * <p>
+ * The timer thread only keeps the time: tasks are run by worker threads, because they write to streams that may
+ * block (e.g. a terminal that stopped reading, or a full pipe), and that must not delay the tasks of other streams.
+ * Tasks must not wait for the lock of a stream either, otherwise every task of a blocked stream would hold a worker:
+ * if the lock is taken, they should try again after {@link #RETRY_DELAY}.
+ */
+final class PromptScheduler {
+	/**
+	 * Time (in nanoseconds) to wait before running again a task that couldn't take the lock of its stream
+	 */
+	static final long RETRY_DELAY = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private PromptScheduler() {
+	}
+
+	/**
+	 * Lazy holder, the executors are created the first time this class is accessed
+	 */
+	private static final class Holder {
+		private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+			runnable -> {
+				Thread thread = new Thread(runnable, "PromptOutput-scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		);
+
+		private static final ExecutorService WORKERS = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "PromptOutput-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Run the task once after the given delay
+	 *
+	 * @param task  the task to run
+	 * @param delay the delay (in nanoseconds)
+	 * @return the future that can be used to cancel the task
+	 */
+	static @NotNull ScheduledFuture<?> schedule(@NotNull Runnable task, long delay) {
+		return Holder.TIMER.schedule(() -> Holder.WORKERS.execute(task), delay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Run the task periodically, starting after one period.
+	 * <p>
+	 * If the task is still running when the next period starts (e.g. it is blocked writing), that period is skipped,
+	 * so only one run of the task happens at a time
+	 *
+	 * @param task   the task to run
+	 * @param period the period (in nanoseconds)
+	 * @return the future that can be used to cancel the task
+	 */
+	static @NotNull ScheduledFuture<?> scheduleAtFixedRate(@NotNull Runnable task, long period) {
+		AtomicBoolean running = new AtomicBoolean();
+		Runnable run = () -> {
+			try {
+				task.run();
+			} finally {
+				running.set(false);
+			}
+		};
+		return Holder.TIMER.scheduleAtFixedRate(() -> {
+			if (running.compareAndSet(false, true))
+				Holder.WORKERS.execute(run);
+		}, period, period, TimeUnit.NANOSECONDS);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of the status icon and the prompt.
+ * <p>
+ * Everything needed to print the prompt is computed once, when the snapshot is created, so readers never need to
+ * synchronize nor allocate: they just read the current snapshot (which is published atomically) and use it.
+ */
+final class PromptState {
+	/**
+	 * No status icon and no prompt
+	 */
+	static final PromptState EMPTY = new PromptState(null, new byte[0], new byte[0]);
+
+	/**
+	 * The status icon as it was given (before adding the trailing space), so it can be compared without encoding it
+	 */
+	private final @Nullable String statusIconString;
+
+	/**
+	 * The status icon as bytes, including the trailing space (if there is an icon)
+	 */
+	final byte @NotNull [] statusIcon;
+
+	/**
+	 * Number of columns the status icon (including the trailing space) takes in the terminal, or -1 if it is not
+	 * known (see {@link #columns(String)})
+	 */
+	final int statusIconColumns;
+
+	/**
+	 * The prompt as bytes
+	 */
+	final byte @NotNull [] prompt;
+
+	/**
+	 * The prompt decoded as a string
+	 */
+	final @NotNull String promptString;
+
+	/**
+	 * The bytes written to show the prompt: \r + status icon + prompt
+	 * <p>
+	 * After a new line has been written, the cursor is already at the beginning of the line, so the variant without
+	 * the \r is written (i.e. this same array starting at index 1)
+	 */
+	final byte @NotNull [] frame;
+
+	private PromptState(@Nullable String statusIconString, byte @NotNull [] statusIcon, byte @NotNull [] prompt) {
+		this.statusIconString = statusIconString;
+		this.statusIcon = statusIcon;
+		this.prompt = prompt;
+		this.promptString = new String(prompt, StandardCharsets.UTF_8);
+		this.statusIconColumns = columns(new String(statusIcon, StandardCharsets.UTF_8));
+
+		this.frame = new byte[1 + statusIcon.length + prompt.length];
+		this.frame[0] = '\r';
+		System.arraycopy(statusIcon, 0, frame, 1, statusIcon.length);
+		System.arraycopy(prompt, 0, frame, 1 + statusIcon.length, prompt.length);
+	}
+
+	/**
+	 * @param statusIcon the status icon. If it does not end with a space, a space is added. If null, no icon is used
+	 * @param prompt     the prompt. If null, no prompt is used
+	 * @return the new snapshot
+	 */
+	static @NotNull PromptState of(@Nullable String statusIcon, @Nullable String prompt) {
+		return new PromptState(statusIcon, encodeStatusIcon(statusIcon), encode(prompt));
+	}
+
+	/**
+	 * @param statusIcon the new status icon (see {@link #of(String, String)})
+	 * @return a copy of this snapshot with a different status icon, or this same snapshot if the icon didn't change
+	 */
+	@NotNull PromptState withStatusIcon(@Nullable String statusIcon) {
+		if (Objects.equals(statusIcon, statusIconString))
+			return this; // avoid encoding (and allocating) when the same icon is set again and again
+
+		return new PromptState(statusIcon, encodeStatusIcon(statusIcon), prompt);
+	}
+
+	/**
+	 * @param prompt the new prompt (see {@link #of(String, String)})
+	 * @return a copy of this snapshot with a different prompt, or this same snapshot if the prompt didn't change
+	 */
+	@NotNull PromptState withPrompt(@Nullable String prompt) {
+		if ((prompt == null ? "" : prompt).equals(promptString))
+			return this;
+
+		return new PromptState(statusIconString, statusIcon, encode(prompt));
+	}
+
+	/**
+	 * @return true if this state and the given one have the same prompt, and their icons take the same number of
+	 * columns. In such case, the icon can be replaced without moving the prompt
+	 */
+	boolean hasSameLayout(@NotNull PromptState other) {
+		return statusIconColumns >= 0 && statusIconColumns == other.statusIconColumns
+			&& Arrays.equals(prompt, other.prompt);
+	}
+
+	/**
+	 * Counts the columns the given string takes in a terminal, as long as all its chars are known to take a single
+	 * column (ASCII, latin letters, box drawing, block elements and braille patterns).
+	 * <p>
+	 * For other chars (e.g. emoji, CJK, combining marks) the width depends on the terminal and font, so -1 is returned
+	 */
+	private static int columns(@NotNull String s) {
+		int columns = 0;
+		for (int i = 0; i < s.length(); ) {
+			int cp = s.codePointAt(i);
+			i += Character.charCount(cp);
+
+			boolean narrow = (cp >= 0x20 && cp < 0x7f)
+				|| (cp >= 0xa0 && cp < 0x300) // latin-1 supplement and latin extended
+				|| (cp >= 0x2500 && cp < 0x25a0) // box drawing and block elements
+				|| (cp >= 0x2800 && cp < 0x2900); // braille patterns (e.g. spinners)
+			if (!narrow)
+				return -1;
+			++columns;
+		}
+		return columns;
+	}
+
+	private static byte @NotNull [] encodeStatusIcon(@Nullable String icon) {
+		if (icon == null)
+			return new byte[0];
+
+		if (!icon.endsWith(" "))
+			icon = icon + " ";
+
+		return icon.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte @NotNull [] encode(@Nullable String s) {
+		return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+	}
+}
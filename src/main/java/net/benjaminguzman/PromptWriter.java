@@ -0,0 +1,174 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+/**
+ * {@link Writer} that prints a prompt after any new line is written.
+ * <p>
+ * Chars are encoded with a reused {@link java.nio.charset.CharsetEncoder} into a reused buffer, and new lines are
+ * found by looking at the chars, so writing (or appending) a {@link String}, {@link StringBuilder} or any other
+ * {@link CharSequence} doesn't create intermediate {@link String} or byte arrays. The prompt is kept as already
+ * encoded bytes.
+ * <p>
+ * Every call to a write or append method is written with a single call to the underlying output stream, unless it
+ * is bigger than the internal buffer.
+ * <p>
+ * The prompt, the status icon and everything else about how it is shown are configured in the
+ * {@link PromptOutputStream} (see {@link #getPromptOutputStream()}), e.g. {@code
+ * new PromptWriter(new PromptOutputStream(System.out).setPrompt("> "), StandardCharsets.UTF_8);
+ * }
+ * <p>
+ * This class is thread-safe.
+ */
+public class PromptWriter extends Writer {
+	private final @NotNull PromptOutputStream promptOut;
+
+	/**
+	 * Guarded by {@link PromptOutputStream#lock}
+	 */
+	private final @NotNull LineEncoder encoder;
+
+	/**
+	 * Creates a new writer that writes to the given output stream using the default charset
+	 *
+	 * @param out the output stream. It should not be buffered (no need for extra buffering)
+	 */
+	public PromptWriter(@NotNull OutputStream out) {
+		this(out, Charset.defaultCharset());
+	}
+
+	/**
+	 * Creates a new writer that writes to the given output stream
+	 *
+	 * @param out     the output stream. It should not be buffered (no need for extra buffering)
+	 * @param charset charset used to encode chars
+	 */
+	public PromptWriter(@NotNull OutputStream out, @NotNull Charset charset) {
+		this(new PromptOutputStream(out), charset);
+	}
+
+	/**
+	 * Creates a new writer that writes to the given prompt output stream, so the prompt is shared with whatever
+	 * else writes to it (e.g. a {@link PromptPrintStream} or {@link PromptConsole})
+	 *
+	 * @param promptOut the prompt output stream
+	 * @param charset   charset used to encode chars
+	 */
+	public PromptWriter(@NotNull PromptOutputStream promptOut, @NotNull Charset charset) {
+		this.promptOut = promptOut;
+		this.encoder = new LineEncoder(promptOut, charset);
+	}
+
+	/**
+	 * @return the stream with the prompt. Use it to change the prompt, the status icon, the flush policy...
+	 */
+	public @NotNull PromptOutputStream getPromptOutputStream() {
+		return promptOut;
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		promptOut.lock.lock();
+		try {
+			encoder.append((char) c);
+			encoder.drain();
+		} finally {
+			promptOut.lock.unlock();
+		}
+	}
+
+	@Override
+	public void write(char @NotNull [] cbuf, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, cbuf.length);
+		promptOut.lock.lock();
+		try {
+			encoder.append(cbuf, off, len);
+			encoder.drain();
+		} finally {
+			promptOut.lock.unlock();
+		}
+	}
+
+	@Override
+	public void write(@NotNull String str, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, str.length());
+		append(str, off, off + len);
+	}
+
+	@Override
+	public @NotNull PromptWriter append(@Nullable CharSequence csq) throws IOException {
+		if (csq == null)
+			csq = "null";
+		return append(csq, 0, csq.length());
+	}
+
+	@Override
+	public @NotNull PromptWriter append(@Nullable CharSequence csq, int start, int end) throws IOException {
+		if (csq == null)
+			csq = "null";
+		Objects.checkFromToIndex(start, end, csq.length());
+
+		promptOut.lock.lock();
+		try {
+			encoder.append(csq, start, end);
+			encoder.drain();
+		} finally {
+			promptOut.lock.unlock();
+		}
+		return this;
+	}
+
+	@Override
+	public @NotNull PromptWriter append(char c) throws IOException {
+		write(c);
+		return this;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		promptOut.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		promptOut.lock.lock();
+		try {
+			encoder.finish();
+			promptOut.close();
+		} finally {
+			promptOut.lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Cycles the status icon of a {@link PromptOutputStream} through a sequence of icons (frames) at a fixed rate.
+ * <p>
+ * All the spinners in the JVM run in the same (daemon) thread, so starting a spinner does not create a thread.
+ * <p>
+ * Frames are encoded once (when the spinner starts, or when the prompt changes), so redrawing doesn't allocate.
+ * <p>
+ * The prompt is only redrawn if it is currently shown. If the line has some other output (e.g. an incomplete line),
+ * the icon is changed but nothing is written, so the output is not corrupted. The next time the prompt is shown,
+ * it'll have the current icon.
+ * <p>
+ * Example: {@code
+ * Spinner spinner = Spinner.start(promptOutStream, Duration.ofMillis(80), Spinner.DOTS);
+ * // do some work
+ * spinner.stop();
+ * promptOutStream.printPrompt("✅");
+ * }
+ */
+public final class Spinner implements AutoCloseable {
+	/**
+	 * Braille dots spinner
+	 */
+	public static final @NotNull List<String> DOTS = List.of("⠋", "⠙", "⠹", "⠸", "⠼", "⠴", "⠦", "⠧", "⠇", "⠏");
+
+	/**
+	 * Classic ASCII spinner
+	 */
+	public static final @NotNull List<String> LINE = List.of("|", "/", "-", "\\");
+
+	private final @NotNull PromptOutputStream out;
+
+	private final @NotNull String @NotNull [] icons;
+
+	/**
+	 * The states for each icon, with the prompt that was set when they were created.
+	 * <p>
+	 * This (and {@link #frame}) is only accessed by the ticks, which run one at a time (see
+	 * {@link PromptScheduler#scheduleAtFixedRate(Runnable, long)})
+	 */
+	private final @NotNull PromptState @NotNull [] frames;
+
+	/**
+	 * Index of the next frame to draw
+	 */
+	private int frame;
+
+	private final @NotNull ScheduledFuture<?> future;
+
+	private Spinner(@NotNull PromptOutputStream out, @NotNull List<String> icons, long period) {
+		this.out = out;
+		this.icons = icons.toArray(new String[0]);
+		this.frames = new PromptState[this.icons.length];
+		encodeFrames(out.state());
+		this.future = PromptScheduler.scheduleAtFixedRate(this::tick, period);
+	}
+
+	/**
+	 * Starts cycling the status icon of the given stream
+	 *
+	 * @param out    the stream
+	 * @param period time each icon is shown
+	 * @param icons  the icons (frames) of the spinner
+	 * @return the spinner, call {@link #stop()} to stop it
+	 */
+	public static @NotNull Spinner start(
+		@NotNull PromptOutputStream out,
+		@NotNull Duration period,
+		@NotNull List<String> icons
+	) {
+		if (icons.isEmpty())
+			throw new IllegalArgumentException("At least one icon is needed");
+		if (period.isNegative() || period.isZero())
+			throw new IllegalArgumentException("Period must be positive");
+
+		return new Spinner(out, icons, period.toNanos());
+	}
+
+	/**
+	 * Encodes the icons with the prompt of the given state
+	 */
+	private void encodeFrames(@NotNull PromptState promptState) {
+		for (int i = 0; i < icons.length; ++i)
+			frames[i] = promptState.withStatusIcon(icons[i]);
+	}
+
+	private void tick() {
+		PromptState current = out.state();
+		if (current.prompt != frames[0].prompt) // the prompt was changed
+			encodeFrames(current);
+
+		// if the state is changed concurrently (e.g. the prompt), try again in the next tick
+		if (out.replaceState(current, frames[frame]))
+			frame = (frame + 1) % frames.length;
+	}
+
+	/**
+	 * Stops the spinner. The last icon shown is kept
+	 */
+	public void stop() {
+		future.cancel(false);
+	}
+
+	@Override
+	public void close() {
+		stop();
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks the steady state (i.e. after warm-up) of printing lines and prompts doesn't allocate memory.
+ * <p>
+ * Allocated bytes are measured with {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, so these
+ * tests are skipped in JVMs that don't support it
+ */
+class AllocationTest {
+	static final int WARM_UP = 200_000;
+	static final int N_LINES = 100_000;
+
+	/**
+	 * Bytes that may be allocated once, by the measurement itself or by the JVM (e.g. after a recompilation). Any
+	 * allocation per call would add up to a lot more than this after {@link #N_LINES} calls
+	 */
+	static final long MEASUREMENT_TOLERANCE = 1024;
+
+	static com.sun.management.ThreadMXBean threadMXBean;
+
+	interface Action {
+		void run() throws IOException;
+	}
+
+	@BeforeAll
+	static void setUp() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	/**
+	 * Runs the action {@link #WARM_UP} times and then checks no bytes are allocated by running it {@link #N_LINES}
+	 * times (except the {@link #MEASUREMENT_TOLERANCE})
+	 */
+	static void assertNoAllocation(Action action) throws IOException {
+		for (int i = 0; i < WARM_UP; ++i)
+			action.run();
+
+		long thread_id = Thread.currentThread().getId();
+		long before = threadMXBean.getThreadAllocatedBytes(thread_id);
+		for (int i = 0; i < N_LINES; ++i)
+			action.run();
+		long after = threadMXBean.getThreadAllocatedBytes(thread_id);
+
+		long allocated = after - before;
+		assertTrue(allocated <= MEASUREMENT_TOLERANCE, allocated + " bytes allocated in " + N_LINES + " calls");
+	}
+
+	@Test()
+	@DisplayName("PromptOutputStream.write should not allocate")
+	void promptOutputStream() throws IOException {
+		PromptOutputStream out = new PromptOutputStream(new CountingOutputStream()).setPrompt(">>> ");
+		byte[] line = "Lorem ipsum dolor sit amet\n".getBytes(StandardCharsets.UTF_8);
+
+		assertNoAllocation(() -> out.write(line));
+	}
+
+	@Test()
+	@DisplayName("PromptPrintStream.println should not allocate")
+	void promptPrintStream() throws IOException {
+		PromptPrintStream out = new PromptPrintStream(
+			new PromptOutputStream(new CountingOutputStream()).setPrompt(">>> ").setStatusIcon("🧪"),
+			StandardCharsets.UTF_8
+		);
+
+		assertNoAllocation(() -> out.println("Lorem ipsum dolor sit amet ñ"));
+	}
+
+	@Test()
+	@DisplayName("PromptWriter.append should not allocate")
+	void promptWriter() throws IOException {
+		PromptWriter out = new PromptWriter(new PromptOutputStream(new CountingOutputStream()).setPrompt(">>> "),
+			StandardCharsets.UTF_8);
+		StringBuilder line = new StringBuilder("Lorem ipsum dolor sit amet ñ\n");
+
+		assertNoAllocation(() -> out.append(line));
+	}
+
+	@Test()
+	@DisplayName("Writing single bytes to a stream shared with PromptConsole should not allocate")
+	void promptConsole() throws IOException {
+		PromptConsole console = new PromptConsole(new CountingOutputStream(), new CountingOutputStream());
+		console.getPromptOutputStream().setPrompt(">>> ");
+		OutputStream err = console.share(new CountingOutputStream());
+
+		assertNoAllocation(() -> {
+			err.write('a');
+			err.write('\n');
+		});
+	}
+
+	@Test()
+	@DisplayName("Writing lines while a subscriber is stuck should not allocate")
+	void stuckSubscriber() throws IOException {
+		PromptOutputStream out = new PromptOutputStream(new CountingOutputStream()).setPrompt(">>> ");
+		CountDownLatch release = new CountDownLatch(1);
+		LineSubscription subscription = out.subscribe((buf, off, len) -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		byte[] line = "Lorem ipsum dolor sit amet\n".getBytes(StandardCharsets.UTF_8);
+
+		try {
+			assertNoAllocation(() -> out.write(line));
+		} finally {
+			release.countDown();
+			subscription.close();
+		}
+	}
+
+	@Test()
+	@DisplayName("Writing and reading single bytes through a PromptPipe should not allocate")
+	void promptPipe() throws IOException {
+		PromptPipe pipe = new PromptPipe(16);
+		OutputStream out = pipe.getOutputStream();
+		InputStream in = pipe.getInputStream();
+
+		assertNoAllocation(() -> {
+			out.write(0xff);
+			assertEquals(0xff, in.read());
+		});
+	}
+
+	@Test()
+	@DisplayName("Printing the prompt with the same icon should not allocate")
+	void printPrompt() throws IOException {
+		PromptOutputStream out = new PromptOutputStream(new CountingOutputStream()).setPrompt(">>> ");
+
+		assertNoAllocation(() -> out.printPrompt("🧪"));
+		assertNoAllocation(() -> out.setStatusIcon("🧪").setPrompt(">>> ").printPrompt());
+		assertNoAllocation(out::getPrompt);
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncPromptOutputStreamTest {
+	@Test()
+	@DisplayName("Lines written by multiple threads should not be lost, corrupted or reordered")
+	void multiThread() throws IOException, InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		AsyncPromptOutputStream asyncOutputStream = new AsyncPromptOutputStream(
+			new PromptOutputStream(outputStream).setPrompt("$ "),
+			1024 // small buffer, so producers have to wait for the drainer
+		);
+		PrintStream printStream = new PrintStream(asyncOutputStream, false);
+
+		int N_THREADS = 8;
+		int N_LINES = 1_000;
+		ExecutorService executorService = Executors.newFixedThreadPool(N_THREADS);
+		for (int i = 0; i < N_THREADS; ++i) {
+			int thread = i;
+			executorService.submit(() -> {
+				for (int j = 0; j < N_LINES; ++j)
+					printStream.println(thread + " " + j);
+			});
+		}
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(15, TimeUnit.SECONDS));
+		asyncOutputStream.close();
+
+		String output = outputStream.toString(StandardCharsets.UTF_8);
+		assertTrue(output.endsWith("\n$ "));
+
+		// remove prompts (the prompt is deleted with \r), the only prompt that is not deleted is the last one
+		List<String> lines = Arrays.stream(output.split("\n"))
+			.map(line -> line.substring(line.lastIndexOf('\r') + 1))
+			.filter(line -> !line.equals("$ "))
+			.collect(Collectors.toList());
+		assertEquals(N_THREADS * N_LINES, lines.size());
+
+		// lines of the same thread must be in order
+		Map<Integer, Integer> nextLine = new HashMap<>();
+		for (String line : lines) {
+			String[] parts = line.split(" ");
+			int thread = Integer.parseInt(parts[0]);
+			int expected = nextLine.getOrDefault(thread, 0);
+			assertEquals(expected, Integer.parseInt(parts[1]));
+			nextLine.put(thread, expected + 1);
+		}
+	}
+
+	@Test()
+	@DisplayName("Writes bigger than the buffer should be written completely")
+	void bigWrite() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		AsyncPromptOutputStream asyncOutputStream = new AsyncPromptOutputStream(
+			new PromptOutputStream(outputStream).setPrompt("$ "),
+			16
+		);
+		assertEquals(16, asyncOutputStream.getCapacity());
+
+		byte[] line = new byte[1_000];
+		Arrays.fill(line, (byte) 'a');
+		line[line.length - 1] = '\n';
+		asyncOutputStream.write(line);
+		asyncOutputStream.flush();
+
+		String output = outputStream.toString(StandardCharsets.UTF_8);
+		assertEquals(new String(line, StandardCharsets.UTF_8) + "$ ", output.replace("\r", ""));
+		asyncOutputStream.close();
+	}
+
+	@Test()
+	@DisplayName("Writing to a closed stream should fail")
+	void closed() throws IOException {
+		AsyncPromptOutputStream asyncOutputStream = new AsyncPromptOutputStream(
+			new PromptOutputStream(new ByteArrayOutputStream())
+		);
+		asyncOutputStream.close();
+		assertThrows(IOException.class, () -> asyncOutputStream.write('a'));
+	}
+
+	/**
+	 * Output (like a terminal paused with Ctrl-S) that blocks until it is released
+	 */
+	private static class PausedOutputStream extends ByteArrayOutputStream {
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch released = new CountDownLatch(1);
+
+		@Override
+		public void write(byte @NotNull [] b, int off, int len) {
+			writing.countDown();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			super.write(b, off, len);
+		}
+	}
+
+	/**
+	 * Writes "line 0" (which is taken by the drainer, that waits for the paused output) and then lines 1 to 5 to a
+	 * buffer of 16 bytes (only 2 lines fit)
+	 *
+	 * @return the output, after the paused output is released
+	 */
+	private static String overflow(@NotNull OverflowPolicy policy, long droppedLines) throws Exception {
+		PausedOutputStream outputStream = new PausedOutputStream();
+		AsyncPromptOutputStream asyncOutputStream = new AsyncPromptOutputStream(
+			new PromptOutputStream(outputStream),
+			16
+		).setOverflowPolicy(policy);
+
+		asyncOutputStream.write("line 0\n".getBytes());
+		assertTrue(outputStream.writing.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i <= 5; ++i)
+			asyncOutputStream.write(("line " + i + "\n").getBytes()); // must not block (longer than the timeout)
+
+		assertEquals(droppedLines, asyncOutputStream.getDroppedLines());
+		assertEquals(droppedLines * 7, asyncOutputStream.getDroppedBytes());
+
+		outputStream.released.countDown();
+		asyncOutputStream.close();
+		return outputStream.toString(StandardCharsets.UTF_8);
+	}
+
+	@Test()
+	@DisplayName("When the buffer is full, the newest writes should be dropped")
+	void dropNewest() throws Exception {
+		assertEquals("line 0\nline 1\nline 2\n", overflow(OverflowPolicy.dropNewest(), 3));
+		assertEquals("line 0\nline 1\nline 2\n", overflow(OverflowPolicy.block(Duration.ofMillis(10)), 3));
+	}
+
+	@Test()
+	@DisplayName("A line dropped in many writes should be counted once")
+	void droppedLines() throws Exception {
+		PausedOutputStream outputStream = new PausedOutputStream();
+		AsyncPromptOutputStream asyncOutputStream = new AsyncPromptOutputStream(
+			new PromptOutputStream(outputStream),
+			16
+		).setOverflowPolicy(OverflowPolicy.dropNewest());
+
+		asyncOutputStream.write("line 0\n".getBytes());
+		assertTrue(outputStream.writing.await(5, TimeUnit.SECONDS));
+		asyncOutputStream.write("line 1\nline 2\n".getBytes()); // 2 bytes left
+
+		// like println in some JDKs, the text is dropped but the new line fits
+		asyncOutputStream.write("line 3".getBytes());
+		asyncOutputStream.write("\n".getBytes());
+		assertEquals(1, asyncOutputStream.getDroppedLines());
+
+		// byte by byte, 'a' fits
+		for (byte b : "abc\n".getBytes())
+			asyncOutputStream.write(b);
+		assertEquals(2, asyncOutputStream.getDroppedLines());
+
+		// an incomplete line is counted when the stream is closed
+		asyncOutputStream.write("tail".getBytes());
+		assertEquals(2, asyncOutputStream.getDroppedLines());
+		outputStream.released.countDown();
+		asyncOutputStream.close();
+		assertEquals(3, asyncOutputStream.getDroppedLines());
+		assertEquals(13, asyncOutputStream.getDroppedBytes());
+	}
+
+	@Test()
+	@DisplayName("When the buffer is full, the oldest lines should be dropped")
+	void dropOldest() throws Exception {
+		assertEquals("line 0\nline 4\nline 5\n", overflow(OverflowPolicy.dropOldest(), 3));
+	}
+
+	@Test()
+	@DisplayName("When the buffer is full, dropped lines should be replaced with a marker")
+	void collapse() throws Exception {
+		assertEquals(
+			"line 0\nline 1\nline 2\n[3 lines dropped]\n",
+			overflow(OverflowPolicy.collapse(), 3)
+		);
+	}
+
+	@Test()
+	@DisplayName("Lines should be dropped completely, never corrupted, when many threads write to a slow output")
+	void dropOldestMultiThread() throws IOException, InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte @NotNull [] b, int off, int len) {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.write(b, off, len);
+			}
+		};
+		AsyncPromptOutputStream asyncOutputStream = new AsyncPromptOutputStream(
+			new PromptOutputStream(outputStream),
+			256
+		).setOverflowPolicy(OverflowPolicy.dropOldest());
+
+		int N_THREADS = 8;
+		int N_LINES = 1_000;
+		ExecutorService executorService = Executors.newFixedThreadPool(N_THREADS);
+		for (int i = 0; i < N_THREADS; ++i) {
+			byte[] line = (String.valueOf((char) ('a' + i)).repeat(6) + "\n").getBytes();
+			executorService.submit(() -> {
+				for (int j = 0; j < N_LINES; ++j)
+					asyncOutputStream.write(line);
+				return null;
+			});
+		}
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(15, TimeUnit.SECONDS));
+		asyncOutputStream.close();
+
+		String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+		assertTrue(asyncOutputStream.getDroppedLines() > 0);
+		assertEquals(N_THREADS * N_LINES, lines.length + asyncOutputStream.getDroppedLines());
+		for (String line : lines)
+			assertTrue(line.matches("([a-h])\\1{5}"), line);
+	}
+}
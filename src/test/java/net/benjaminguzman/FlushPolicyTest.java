@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlushPolicyTest {
+	@Test()
+	@DisplayName("Per line policy should flush after every new line")
+	void perLine() {
+		CountingOutputStream outputStream = new CountingOutputStream();
+		PrintStream printStream = new PrintStream(new PromptOutputStream(outputStream).setPrompt("$ "), false);
+
+		printStream.print("no new line");
+		assertEquals(0, outputStream.flushes);
+
+		for (int i = 0; i < 10; ++i)
+			printStream.println("Test");
+		assertEquals(10, outputStream.flushes);
+	}
+
+	@Test()
+	@DisplayName("Size threshold policy should flush once enough bytes are written")
+	void sizeThreshold() {
+		CountingOutputStream outputStream = new CountingOutputStream();
+		PrintStream printStream = new PrintStream(
+			new PromptOutputStream(outputStream).setPrompt("$ ").setFlushPolicy(FlushPolicy.sizeThreshold(100)),
+			false
+		);
+
+		for (int i = 0; i < 9; ++i)
+			printStream.println("123456789"); // 10 bytes
+		assertEquals(0, outputStream.flushes);
+
+		printStream.println("123456789");
+		assertEquals(1, outputStream.flushes);
+
+		printStream.println("123456789");
+		assertEquals(1, outputStream.flushes);
+	}
+
+	@Test()
+	@DisplayName("Interval policy should flush in the background within the interval")
+	void interval() throws InterruptedException {
+		CountingOutputStream outputStream = new CountingOutputStream();
+		PrintStream printStream = new PrintStream(
+			new PromptOutputStream(outputStream)
+				.setPrompt("$ ")
+				.setFlushPolicy(FlushPolicy.interval(Duration.ofMillis(16))),
+			false
+		);
+
+		int N_LINES = 1_000;
+		for (int i = 0; i < N_LINES; ++i)
+			printStream.println("Test");
+		assertTrue(outputStream.flushes < N_LINES);
+
+		Thread.sleep(500);
+		int flushes = outputStream.flushes;
+		assertTrue(flushes >= 1);
+
+		// nothing else was written, so nothing else should be flushed
+		Thread.sleep(100);
+		assertEquals(flushes, outputStream.flushes);
+	}
+
+	@Test()
+	@DisplayName("Idle policy should flush only after nothing has been written for a while")
+	void whenIdle() throws InterruptedException {
+		CountingOutputStream outputStream = new CountingOutputStream();
+		PrintStream printStream = new PrintStream(
+			new PromptOutputStream(outputStream)
+				.setPrompt("$ ")
+				.setFlushPolicy(FlushPolicy.whenIdle(Duration.ofMillis(20))),
+			false
+		);
+
+		for (int i = 0; i < 1_000; ++i)
+			printStream.println("Test");
+
+		Thread.sleep(500);
+		assertEquals(1, outputStream.flushes);
+	}
+
+	@Test()
+	@DisplayName("A stream that blocks while flushing should not stop the other streams from flushing")
+	void blockedStream() throws IOException, InterruptedException {
+		// output that blocks until the latch is released, like a full pipe
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		OutputStream blockingOutputStream = new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void flush() throws IOException {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+		};
+		PromptOutputStream blockedStream = new PromptOutputStream(blockingOutputStream)
+			.setPrompt("$ ")
+			.setFlushPolicy(FlushPolicy.interval(Duration.ofMillis(5)));
+
+		CountingOutputStream outputStream = new CountingOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream)
+			.setPrompt("$ ")
+			.setFlushPolicy(FlushPolicy.interval(Duration.ofMillis(5)));
+
+		try {
+			blockedStream.write("Test\n".getBytes());
+			assertTrue(blocked.await(5, TimeUnit.SECONDS)); // the scheduled flush is stuck
+
+			promptOutputStream.write("Test\n".getBytes());
+			Thread.sleep(500);
+			assertEquals(1, outputStream.flushes);
+		} finally {
+			release.countDown();
+		}
+	}
+}
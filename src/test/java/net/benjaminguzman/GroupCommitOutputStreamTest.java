@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupCommitOutputStreamTest {
+	/**
+	 * Slow stream (like a terminal or a pipe) that counts the writes
+	 */
+	private static class SlowOutputStream extends ByteArrayOutputStream {
+		int writes;
+
+		@Override
+		public synchronized void write(byte @NotNull [] b, int off, int len) {
+			++writes;
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			super.write(b, off, len);
+		}
+	}
+
+	@Test()
+	@DisplayName("Lines written by concurrent threads should be written in batches, without corrupting them")
+	void multiThread() throws InterruptedException {
+		SlowOutputStream outputStream = new SlowOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+		GroupCommitOutputStream out = new GroupCommitOutputStream(promptOutputStream);
+
+		int N_THREADS = 8;
+		int N_LINES = 200;
+		ExecutorService executorService = Executors.newFixedThreadPool(N_THREADS);
+		for (int i = 0; i < N_THREADS; ++i) {
+			byte[] line = (String.valueOf((char) ('a' + i)).repeat(6) + "\n").getBytes();
+			executorService.submit(() -> {
+				for (int j = 0; j < N_LINES; ++j)
+					out.write(line);
+				return null;
+			});
+		}
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+
+		String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+		assertEquals(N_THREADS * N_LINES + 1, lines.length); // +1 because of the last prompt
+		for (int i = 0; i < N_THREADS * N_LINES; ++i) {
+			String line = lines[i].substring(lines[i].lastIndexOf('\r') + 1); // delete the prompt
+			assertTrue(line.matches("([a-h])\\1{5}"), line);
+		}
+
+		// each batch is written with a single write (and a single prompt), so there should be fewer writes than lines
+		assertTrue(outputStream.writes < N_THREADS * N_LINES, "writes: " + outputStream.writes);
+		System.out.println("Lines: " + N_THREADS * N_LINES + ". Writes: " + outputStream.writes);
+	}
+
+	@Test()
+	@DisplayName("Without contention, every write should be written right away, just like PromptOutputStream does")
+	void singleThread() throws IOException {
+		ByteArrayOutputStream expectedStream = new ByteArrayOutputStream();
+		PromptOutputStream expected = new PromptOutputStream(expectedStream).setPrompt("$ ");
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+		GroupCommitOutputStream out = new GroupCommitOutputStream(promptOutputStream);
+
+		for (String s : new String[]{"1\n", "2", "3\n4\n", "5"}) {
+			expected.write(s.getBytes());
+			out.write(s.getBytes());
+			assertEquals(expectedStream.toString(), outputStream.toString());
+		}
+		expected.write('\n');
+		out.write('\n');
+		assertEquals(expectedStream.toString(), outputStream.toString());
+
+		out.close();
+		assertThrows(IOException.class, () -> out.write('6'));
+	}
+
+	@Test()
+	@DisplayName("A failed write should be reported to the writers")
+	void failure() throws InterruptedException {
+		OutputStream broken = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("broken");
+			}
+
+			@Override
+			public void write(byte @NotNull [] b, int off, int len) throws IOException {
+				throw new IOException("broken");
+			}
+		};
+		GroupCommitOutputStream out = new GroupCommitOutputStream(new PromptOutputStream(broken));
+
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; ++i)
+			futures.add(executorService.submit(() -> {
+				out.write("line\n".getBytes());
+				return null;
+			}));
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+
+		for (Future<?> future : futures)
+			assertThrows(Exception.class, future::get);
+		assertThrows(IOException.class, () -> out.write('\n'));
+	}
+}
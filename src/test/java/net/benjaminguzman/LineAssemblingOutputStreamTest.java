@@ -0,0 +1,199 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineAssemblingOutputStreamTest {
+	@Test()
+	@DisplayName("Fragments of lines printed by different threads should not be interleaved")
+	void multiThread() throws InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+		PrintStream printStream = new PrintStream(new LineAssemblingOutputStream(promptOutputStream), false);
+
+		int N_THREADS = 8;
+		int N_LINES = 1_000;
+		ExecutorService executorService = Executors.newFixedThreadPool(N_THREADS);
+		for (int i = 0; i < N_THREADS; ++i) {
+			String id = String.valueOf((char) ('a' + i));
+			executorService.submit(() -> {
+				for (int j = 0; j < N_LINES; ++j) {
+					printStream.print(id);
+					printStream.print(id.repeat(2));
+					printStream.println(id.repeat(3));
+				}
+			});
+		}
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+
+		String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+		assertEquals(N_THREADS * N_LINES + 1, lines.length); // +1 because of the last prompt
+		for (int i = 0; i < N_THREADS * N_LINES; ++i) {
+			String line = lines[i].substring(lines[i].lastIndexOf('\r') + 1); // delete the prompt
+			assertTrue(line.matches("([a-h])\\1{5}"), line);
+		}
+	}
+
+	@Test()
+	@DisplayName("Incomplete lines should be written on flush and close")
+	void incompleteLines() throws IOException, InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+		LineAssemblingOutputStream out = new LineAssemblingOutputStream(promptOutputStream);
+
+		out.write("1\n2".getBytes());
+		assertEquals("1\n$ ", outputStream.toString());
+
+		out.write('3');
+		out.flush();
+		assertEquals("1\n$ \r23", outputStream.toString());
+
+		Thread thread = new Thread(() -> {
+			try {
+				out.write("4".getBytes());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		thread.start();
+		thread.join();
+		assertEquals("1\n$ \r23", outputStream.toString());
+
+		out.close();
+		assertEquals("1\n$ \r234", outputStream.toString());
+		assertThrows(IOException.class, () -> out.write('5'));
+	}
+
+	@Test()
+	@DisplayName("Incomplete lines should be written after the thread is dead")
+	void threadExit() throws InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		LineAssemblingOutputStream out = new LineAssemblingOutputStream(new PromptOutputStream(outputStream));
+
+		Thread thread = new Thread(() -> {
+			try {
+				out.write("incomplete".getBytes());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		thread.start();
+		thread.join();
+		thread = null; // let it be garbage collected
+
+		for (int i = 0; i < 100 && outputStream.size() == 0; ++i) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		assertEquals("incomplete", outputStream.toString());
+		Reference.reachabilityFence(out); // the thread only references it weakly
+	}
+
+	@Test()
+	@DisplayName("A closed stream should not be kept alive by the threads that wrote to it")
+	void closeReleasesThreads() throws Exception {
+		ExecutorService executorService = Executors.newSingleThreadExecutor(); // the thread outlives the stream
+		WeakReference<LineAssemblingOutputStream> reference = write(executorService, true);
+
+		for (int i = 0; i < 100 && reference.get() != null; ++i) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		assertNull(reference.get());
+		executorService.shutdown();
+	}
+
+	@Test()
+	@DisplayName("A stream that is not closed should not be kept alive by the threads that wrote to it either")
+	void unclosedReleasesThreads() throws Exception {
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		WeakReference<LineAssemblingOutputStream> reference = write(executorService, false);
+
+		for (int i = 0; i < 100 && reference.get() != null; ++i) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		assertNull(reference.get());
+		executorService.shutdown();
+	}
+
+	/**
+	 * Writes an incomplete line from the given executor and, optionally, closes the stream
+	 *
+	 * @return a reference to the stream (there are no other references to it)
+	 */
+	private WeakReference<LineAssemblingOutputStream> write(ExecutorService executorService, boolean close)
+		throws Exception {
+		LineAssemblingOutputStream out = new LineAssemblingOutputStream(
+			new PromptOutputStream(OutputStream.nullOutputStream()));
+		executorService.submit(() -> {
+			out.write("incomplete".getBytes());
+			return null;
+		}).get();
+		if (close)
+			out.close();
+		return new WeakReference<>(out);
+	}
+
+	@Test()
+	@DisplayName("The incomplete line after the last new line should not be longer than the max length")
+	void longTail() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		LineAssemblingOutputStream out = new LineAssemblingOutputStream(new PromptOutputStream(outputStream));
+
+		byte[] bytes = new byte[2 + LineAssemblingOutputStream.MAX_LINE_LENGTH + 1];
+		bytes[0] = 'a';
+		bytes[1] = '\n';
+		out.write("b".getBytes());
+		out.write(bytes);
+		assertEquals(bytes.length + 1, outputStream.size()); // the tail was written, it didn't stay in the buffer
+
+		// many lines after an incomplete one are not copied into the buffer
+		outputStream.reset();
+		out.write("c".getBytes());
+		byte[] lines = new byte[LineAssemblingOutputStream.MAX_LINE_LENGTH + 2];
+		Arrays.fill(lines, (byte) '\n');
+		out.write(lines);
+		assertTrue(outputStream.toString().startsWith("c\n\n"));
+	}
+}
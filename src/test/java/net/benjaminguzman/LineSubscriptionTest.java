@@ -0,0 +1,244 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineSubscriptionTest {
+	/**
+	 * Subscriber that keeps every line as a string
+	 */
+	static class CollectingSubscriber implements LineSubscriber {
+		final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public void onLine(byte[] buf, int off, int len) {
+			lines.add(new String(buf, off, len, StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test()
+	@DisplayName("Subscribers should get every line printed, but not the prompt")
+	void lines() throws Exception {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+
+		promptOutputStream.write("before\n".getBytes());
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		LineSubscription subscription = promptOutputStream.subscribe(subscriber);
+
+		promptOutputStream.write("1\n2\n".getBytes());
+		promptOutputStream.write("incom".getBytes());
+		promptOutputStream.write("plete".getBytes());
+		promptOutputStream.write('\n');
+		promptOutputStream.write('x');
+		promptOutputStream.write("\n\n".getBytes());
+		try (PromptBlock block = promptOutputStream.block()) {
+			block.println("block 1");
+			block.println("block 2");
+		}
+		promptOutputStream.setPassthrough(true);
+		promptOutputStream.write("passthrough\n".getBytes());
+		promptOutputStream.setPassthrough(false);
+
+		// a line longer than the max length is published in parts
+		byte[] longLine = new byte[LineRing.MAX_LINE_LENGTH + 10];
+		for (int i = 0; i < longLine.length; i += 8)
+			promptOutputStream.write(longLine, i, Math.min(8, longLine.length - i));
+		promptOutputStream.write('\n');
+		promptOutputStream.write("not finished".getBytes());
+
+		promptOutputStream.close();
+		assertTrue(subscription.awaitTermination(5_000));
+
+		assertEquals(List.of("1", "2", "incomplete", "x", "", "block 1", "block 2", "passthrough",
+			new String(new byte[LineRing.MAX_LINE_LENGTH]), new String(new byte[10])), subscriber.lines);
+		assertEquals(10, subscription.getDeliveredLines());
+		assertEquals(0, subscription.getDroppedLines());
+		assertEquals(0, subscription.getLag());
+	}
+
+	@Test()
+	@DisplayName("Output should be the same with and without subscribers")
+	void sameOutput() throws IOException {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		PromptOutputStream plain = new PromptOutputStream(expected).setPrompt("$ ");
+		PromptOutputStream subscribed = new PromptOutputStream(actual).setPrompt("$ ");
+		LineSubscription subscription = subscribed.subscribe((buf, off, len) -> {
+		});
+
+		for (PromptOutputStream promptOutputStream : List.of(plain, subscribed)) {
+			promptOutputStream.write("line\n".getBytes());
+			promptOutputStream.write("partial".getBytes());
+			promptOutputStream.write('\n');
+			promptOutputStream.printThrowable(new RuntimeException("test"));
+			promptOutputStream.setPassthrough(true);
+			promptOutputStream.write("passthrough\n".getBytes());
+			promptOutputStream.write('!');
+		}
+
+		subscription.close();
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test()
+	@DisplayName("A slow subscriber should not stall the output, and it should not slow down the other subscribers")
+	void slowSubscriber() throws Exception {
+		PromptOutputStream promptOutputStream = new PromptOutputStream(OutputStream.nullOutputStream())
+			.setPrompt("$ ");
+
+		CountDownLatch release = new CountDownLatch(1);
+		List<Integer> slowLines = Collections.synchronizedList(new ArrayList<>());
+		LineSubscription slow = promptOutputStream.subscribe((buf, off, len) -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			slowLines.add(Integer.parseInt(new String(buf, off, len, StandardCharsets.UTF_8)));
+		});
+		CollectingSubscriber fastSubscriber = new CollectingSubscriber();
+		LineSubscription fast = promptOutputStream.subscribe(fastSubscriber);
+
+		int N_LINES = LineRing.DEFAULT_SIZE * 5;
+		int ROUND = LineRing.DEFAULT_SIZE / 4;
+		for (int i = 0; i < N_LINES; ++i) {
+			promptOutputStream.write((i + "\n").getBytes()); // this would hang if the slow subscriber stalled it
+
+			// give the fast subscriber time to catch up (with a single CPU, it may not run until the loop ends)
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			if ((i + 1) % ROUND == 0)
+				while (fast.getLag() > 0 && System.nanoTime() < deadline)
+					Thread.sleep(1);
+		}
+
+		assertTrue(slow.getLag() > LineRing.DEFAULT_SIZE);
+		release.countDown();
+		promptOutputStream.close();
+		assertTrue(slow.awaitTermination(5_000));
+		assertTrue(fast.awaitTermination(5_000));
+
+		// the fast subscriber gets everything
+		assertEquals(N_LINES, fastSubscriber.lines.size());
+		for (int i = 0; i < N_LINES; ++i)
+			assertEquals(String.valueOf(i), fastSubscriber.lines.get(i));
+		assertEquals(0, fast.getDroppedLines());
+
+		// the slow one misses some lines, but the lines it gets are complete and in order
+		assertTrue(slow.getDroppedLines() > 0);
+		assertEquals(N_LINES, slow.getDeliveredLines() + slow.getDroppedLines());
+		assertEquals(slow.getDeliveredLines(), slowLines.size());
+		for (int i = 1; i < slowLines.size(); ++i)
+			assertTrue(slowLines.get(i - 1) < slowLines.get(i));
+		assertEquals(N_LINES - 1, slowLines.get(slowLines.size() - 1));
+	}
+
+	@Test()
+	@DisplayName("A closed subscription should not get more lines")
+	void close() throws Exception {
+		PromptOutputStream promptOutputStream = new PromptOutputStream(OutputStream.nullOutputStream());
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		CountDownLatch received = new CountDownLatch(1);
+		LineSubscription subscription = promptOutputStream.subscribe((buf, off, len) -> {
+			subscriber.onLine(buf, off, len);
+			received.countDown();
+		});
+
+		promptOutputStream.write("1\n".getBytes());
+		assertTrue(received.await(5, TimeUnit.SECONDS));
+		subscription.close();
+		assertTrue(subscription.awaitTermination(5_000));
+
+		promptOutputStream.write("2\n".getBytes());
+		assertEquals(List.of("1"), subscriber.lines);
+	}
+
+	@Test()
+	@DisplayName("Exceptions thrown by a subscriber should go to the error handler, and the subscription should go on")
+	void errorHandler() throws Exception {
+		PromptOutputStream promptOutputStream = new PromptOutputStream(OutputStream.nullOutputStream());
+		CollectingSubscriber subscriber = new CollectingSubscriber();
+		List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<>());
+		LineSubscription subscription = promptOutputStream.subscribe((buf, off, len) -> {
+			if (buf[off] == 'x')
+				throw new IllegalStateException("bad line");
+			subscriber.onLine(buf, off, len);
+		}, errors::add);
+
+		promptOutputStream.write("1\nx\n2\n".getBytes());
+		promptOutputStream.close();
+		assertTrue(subscription.awaitTermination(5_000));
+
+		assertEquals(List.of("1", "2"), subscriber.lines);
+		assertEquals(1, errors.size());
+		assertEquals("bad line", errors.get(0).getMessage());
+		assertEquals(1, subscription.getFailedLines());
+	}
+
+	@Test()
+	@DisplayName("Exceptions thrown by a subscriber should not be printed to the standard error it listens to")
+	void failingSubscriberOnConsole() throws Exception {
+		ByteArrayOutputStream terminal = new ByteArrayOutputStream();
+		PromptConsole console = new PromptConsole(terminal, terminal, StandardCharsets.UTF_8);
+		PrintStream originalErr = System.err;
+		System.setErr(console.err()); // as PromptConsole.install() does
+		try {
+			LineSubscription subscription = console.getPromptOutputStream().subscribe((buf, off, len) -> {
+				throw new IllegalStateException("bad subscriber");
+			});
+
+			console.out().println("1");
+			console.err().println("2");
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (subscription.getDeliveredLines() < 2 && System.nanoTime() < deadline)
+				Thread.sleep(1);
+			Thread.sleep(100); // a feedback loop would keep delivering lines
+
+			subscription.close();
+			assertTrue(subscription.awaitTermination(5_000));
+			assertEquals(2, subscription.getDeliveredLines());
+			assertEquals(2, subscription.getFailedLines());
+			assertFalse(terminal.toString(StandardCharsets.UTF_8).contains("bad subscriber"));
+		} finally {
+			System.setErr(originalErr);
+		}
+	}
+}
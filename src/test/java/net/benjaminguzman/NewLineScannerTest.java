@@ -0,0 +1,91 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NewLineScannerTest {
+	int naiveIndexOf(byte[] b, int from, int to) {
+		for (int i = from; i < to; ++i)
+			if (b[i] == '\n')
+				return i;
+		return -1;
+	}
+
+	int naiveLastIndexOf(byte[] b, int from, int to) {
+		for (int i = to - 1; i >= from; --i)
+			if (b[i] == '\n')
+				return i;
+		return -1;
+	}
+
+	@Test()
+	@DisplayName("Scanner should find the same new lines as a byte by byte search")
+	void randomBuffers() {
+		Random random = new Random(42);
+		for (int n = 0; n < 10_000; ++n) {
+			byte[] b = new byte[random.nextInt(100)];
+			random.nextBytes(b);
+			// include some new lines and bytes that are "close" to a new line
+			for (int i = 0; i < b.length; ++i) {
+				int r = random.nextInt(20);
+				if (r == 0)
+					b[i] = '\n';
+				else if (r == 1)
+					b[i] = '\n' | (byte) 0x80;
+				else if (r == 2)
+					b[i] = '\n' + 1;
+			}
+
+			int from = b.length == 0 ? 0 : random.nextInt(b.length);
+			int to = from + random.nextInt(b.length - from + 1);
+			assertEquals(naiveIndexOf(b, from, to), NewLineScanner.indexOf(b, from, to));
+			assertEquals(naiveLastIndexOf(b, from, to), NewLineScanner.lastIndexOf(b, from, to));
+		}
+	}
+
+	@Test()
+	@DisplayName("Scanner should find new lines at the boundaries of the range")
+	void boundaries() {
+		byte[] b = new byte[64];
+		assertEquals(-1, NewLineScanner.indexOf(b, 0, b.length));
+		assertEquals(-1, NewLineScanner.lastIndexOf(b, 0, b.length));
+
+		b[0] = '\n';
+		b[63] = '\n';
+		assertEquals(0, NewLineScanner.indexOf(b, 0, b.length));
+		assertEquals(63, NewLineScanner.lastIndexOf(b, 0, b.length));
+		assertEquals(63, NewLineScanner.indexOf(b, 1, b.length));
+		assertEquals(0, NewLineScanner.lastIndexOf(b, 0, b.length - 1));
+		assertEquals(-1, NewLineScanner.indexOf(b, 1, b.length - 1));
+		assertEquals(-1, NewLineScanner.lastIndexOf(b, 1, b.length - 1));
+	}
+}
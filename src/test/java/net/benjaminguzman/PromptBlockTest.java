@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptBlockTest {
+	@Test()
+	@DisplayName("A block should be written when it is closed, followed by a single prompt")
+	void block() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+
+		promptOutputStream.write("1\n".getBytes());
+		try (PromptBlock block = promptOutputStream.block()) {
+			block.println("Report");
+			block.println("  total: " + 2);
+			assertEquals("1\n$ ", outputStream.toString()); // nothing is written until the block is closed
+		}
+		assertEquals("1\n$ \rReport\n  total: 2\n$ ", outputStream.toString());
+
+		// incomplete lines can't be followed by the prompt
+		try (PromptBlock block = promptOutputStream.block()) {
+			block.print("incomplete");
+		}
+		assertEquals("1\n$ \rReport\n  total: 2\n$ \rincomplete", outputStream.toString());
+
+		PromptBlock block = promptOutputStream.block();
+		block.close();
+		block.println("closed");
+		assertTrue(block.checkError());
+		assertEquals("1\n$ \rReport\n  total: 2\n$ \rincomplete", outputStream.toString());
+	}
+
+	@Test()
+	@DisplayName("A long stack trace should be written with a single write and a single flush")
+	void printThrowable() {
+		Throwable throwable = deepThrowable(200);
+		assertTrue(throwable.getStackTrace().length > 200);
+
+		CountingOutputStream countingOutputStream = new CountingOutputStream();
+		new PromptOutputStream(countingOutputStream).setPrompt("$ ").printThrowable(throwable);
+		assertEquals(1, countingOutputStream.writes);
+		assertEquals(1, countingOutputStream.flushes);
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		new PromptOutputStream(outputStream).setPrompt("$ ").printThrowable(throwable);
+		String output = outputStream.toString(StandardCharsets.UTF_8);
+		assertTrue(output.startsWith("java.lang.IllegalStateException: deep\n"), output);
+		assertTrue(output.endsWith("\n$ "), output);
+	}
+
+	private static Throwable deepThrowable(int depth) {
+		if (depth == 0)
+			return new IllegalStateException("deep");
+		return deepThrowable(depth - 1);
+	}
+
+	@Test()
+	@DisplayName("Lines printed by other threads should not be in the middle of a block")
+	void multiThread() throws InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+
+		int N_THREADS = 8;
+		int N_BLOCKS = 200;
+		ExecutorService executorService = Executors.newFixedThreadPool(N_THREADS);
+		for (int i = 0; i < N_THREADS; ++i) {
+			String line = String.valueOf((char) ('a' + i)).repeat(6);
+			executorService.submit(() -> {
+				for (int j = 0; j < N_BLOCKS; ++j)
+					try (PromptBlock block = promptOutputStream.block()) {
+						for (int k = 0; k < 5; ++k)
+							block.println(line);
+					}
+			});
+		}
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+
+		String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+		assertEquals(N_THREADS * N_BLOCKS * 5 + 1, lines.length); // +1 because of the last prompt
+		for (int i = 0; i < N_THREADS * N_BLOCKS * 5; i += 5) {
+			String first = lines[i].substring(lines[i].lastIndexOf('\r') + 1); // delete the prompt
+			assertTrue(first.matches("([a-h])\\1{5}"), first);
+			for (int k = 1; k < 5; ++k)
+				assertEquals(first, lines[i + k]);
+		}
+	}
+}
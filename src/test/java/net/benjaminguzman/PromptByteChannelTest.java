@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptByteChannelTest {
+	ByteBuffer bytes(String s) {
+		return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test()
+	@DisplayName("Output should be the same as the output of PromptOutputStream")
+	void file() throws IOException {
+		Path file = Files.createTempFile("prompt", ".txt");
+		try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			PromptByteChannel channel = new PromptByteChannel(fileChannel).setPrompt("$ ").setStatusIcon("🧪");
+
+			assertEquals(5, channel.write(bytes("Test\n")));
+			channel.write(bytes("1\n2\n"));
+			channel.write(bytes("3"));
+			channel.write(bytes("\n"));
+			channel.printPrompt("⏳");
+		}
+
+		String output = Files.readString(file, StandardCharsets.UTF_8);
+		assertEquals("Test\n🧪 $ \r1\n2\n🧪 $ \r3\n🧪 $ \r⏳ $ ", output);
+		Files.delete(file);
+	}
+
+	@Test()
+	@DisplayName("With an empty prompt, output should be the same as the output of PromptOutputStream")
+	void emptyPrompt() throws IOException {
+		Path file = Files.createTempFile("prompt", ".txt");
+		try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			PromptByteChannel channel = new PromptByteChannel(fileChannel);
+			channel.write(bytes("Test\n"));
+			channel.write(bytes("1\n"));
+			channel.printPrompt();
+			channel.write(bytes("2\n"));
+			channel.setPrompt("$ ").write(bytes("3\n"));
+			channel.setPrompt(null).write(bytes("4\n"));
+			channel.write(bytes("5\n"));
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		PromptOutputStream promptOutStream = new PromptOutputStream(baos);
+		promptOutStream.write(bytes("Test\n").array());
+		promptOutStream.write(bytes("1\n").array());
+		promptOutStream.printPrompt();
+		promptOutStream.write(bytes("2\n").array());
+		promptOutStream.setPrompt("$ ").write(bytes("3\n").array());
+		promptOutStream.setPrompt(null).write(bytes("4\n").array());
+		promptOutStream.write(bytes("5\n").array());
+
+		String output = Files.readString(file, StandardCharsets.UTF_8);
+		assertEquals(baos.toString(StandardCharsets.UTF_8), output);
+		assertEquals("Test\n1\n\r2\n3\n$ \r4\n5\n", output);
+		Files.delete(file);
+	}
+
+	@Test()
+	@DisplayName("Line, \\r and prompt should be written with a single gathering write")
+	void singleGatheringWrite() throws IOException {
+		CountingChannel countingChannel = new CountingChannel();
+		PromptByteChannel channel = new PromptByteChannel(countingChannel).setPrompt(">>> ");
+
+		int N_LINES = 1_000;
+		for (int i = 0; i < N_LINES; ++i)
+			channel.write(bytes("Test\n"));
+
+		assertEquals(N_LINES, countingChannel.writes);
+		assertEquals(0, countingChannel.partial_writes);
+	}
+
+	/**
+	 * Channel that discards everything, but counts the calls to its write methods
+	 */
+	static class CountingChannel implements GatheringByteChannel {
+		int writes;
+		int partial_writes;
+
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length) {
+			++writes;
+			long written = 0;
+			for (int i = offset; i < offset + length; ++i) {
+				written += srcs[i].remaining();
+				srcs[i].position(srcs[i].limit());
+			}
+			return written;
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs) {
+			return write(srcs, 0, srcs.length);
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			++partial_writes;
+			int written = src.remaining();
+			src.position(src.limit());
+			return written;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
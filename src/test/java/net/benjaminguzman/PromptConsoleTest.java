@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptConsoleTest {
+	@Test()
+	@DisplayName("Lines printed to the standard error should delete the prompt and print it again")
+	void stderr() {
+		// both streams are shown in the same terminal
+		ByteArrayOutputStream terminal = new ByteArrayOutputStream();
+		PromptConsole console = new PromptConsole(terminal, terminal, StandardCharsets.UTF_8);
+		console.getPromptOutputStream().setPrompt("$ ");
+
+		console.out().println("1");
+		assertEquals("1\n$ ", terminal.toString());
+
+		console.err().println("e");
+		assertEquals("1\n$ \r\033[2Ke\n$ ", terminal.toString());
+
+		console.out().println("2");
+		assertEquals("1\n$ \r\033[2Ke\n$ \r2\n$ ", terminal.toString());
+
+		console.err().print("incomplete ");
+		console.err().flush();
+		console.out().println("line");
+		assertEquals("1\n$ \r\033[2Ke\n$ \r2\n$ \r\033[2Kincomplete line\n$ ", terminal.toString());
+	}
+
+	@Test()
+	@DisplayName("Output held by the flush policy should be shown before the standard error")
+	void stderrAfterHeldOutput() {
+		ByteArrayOutputStream terminal = new ByteArrayOutputStream();
+		// the bytes are only shown in the terminal when they are flushed
+		PromptConsole console = new PromptConsole(new BufferedOutputStream(terminal), terminal,
+			StandardCharsets.UTF_8);
+		console.getPromptOutputStream()
+			.setPrompt("$ ")
+			.setFlushPolicy(FlushPolicy.sizeThreshold(1024));
+
+		console.out().println("1");
+		assertEquals("", terminal.toString());
+		console.err().println("e");
+		assertEquals("1\n$ \r\033[2Ke\n$ ", terminal.toString());
+
+		// partial lines and deferred prompts don't delete the prompt, but are flushed anyway
+		console.out().print("partial ");
+		console.err().println("line");
+		assertEquals("1\n$ \r\033[2Ke\n$ \rpartial line\n$ ", terminal.toString());
+
+		console.getPromptOutputStream().setPromptDelay(Duration.ofHours(1));
+		console.out().println("2");
+		console.err().println("e");
+		assertEquals("1\n$ \r\033[2Ke\n$ \rpartial line\n$ \r2\ne\n", terminal.toString());
+	}
+
+	@Test()
+	@DisplayName("In passthrough mode, the output of both streams should be in the order it was written")
+	void stderrPassthrough() {
+		ByteArrayOutputStream terminal = new ByteArrayOutputStream();
+		// the bytes written to the standard error are only shown in the terminal when they are flushed
+		PromptConsole console = new PromptConsole(terminal, new BufferedOutputStream(terminal),
+			StandardCharsets.UTF_8);
+		console.getPromptOutputStream()
+			.setPrompt("$ ")
+			.setPassthrough(true);
+
+		console.err().println("e");
+		assertEquals("e\n", terminal.toString());
+		console.out().println("1");
+		console.err().println("e");
+		console.out().println("2");
+		assertEquals("e\n1\ne\n2\n", terminal.toString());
+	}
+
+	@Test()
+	@DisplayName("Only one prompt should be on the screen, no matter which stream prints")
+	void multiThread() throws InterruptedException {
+		ByteArrayOutputStream terminal = new ByteArrayOutputStream();
+		PromptConsole console = new PromptConsole(terminal, terminal, StandardCharsets.UTF_8);
+		console.getPromptOutputStream().setPrompt("$ ");
+
+		int N_THREADS = 8;
+		int N_LINES = 500;
+		ExecutorService executorService = Executors.newFixedThreadPool(N_THREADS);
+		for (int i = 0; i < N_THREADS; ++i) {
+			String line = String.valueOf((char) ('a' + i)).repeat(6);
+			boolean stderr = i % 2 == 0;
+			executorService.submit(() -> {
+				for (int j = 0; j < N_LINES; ++j)
+					(stderr ? console.err() : console.out()).println(line);
+			});
+		}
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+
+		String[] lines = terminal.toString(StandardCharsets.UTF_8).split("\n");
+		assertEquals(N_THREADS * N_LINES + 1, lines.length); // +1 because of the last prompt
+		for (int i = 0; i < N_THREADS * N_LINES; ++i) {
+			String line = lines[i];
+			// the prompt is either overwritten (\r) or deleted (\r\033[2K) before the line
+			line = line.substring(line.lastIndexOf('\r') + 1).replace("\033[2K", "");
+			assertTrue(line.matches("([a-h])\\1{5}"), line);
+		}
+		assertEquals("$ ", lines[lines.length - 1]);
+	}
+}
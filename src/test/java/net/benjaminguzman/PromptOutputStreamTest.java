@@ -25,20 +25,26 @@
 
 package net.benjaminguzman;
 
+import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class PromptOutputStreamTest {
 	PrintStream originalOut;
@@ -76,11 +82,11 @@ class PromptOutputStreamTest {
 	@DisplayName("Prompt should be written after new line")
 	void singleThread() throws IOException {
 		// initialize Output
-		PipedOutputStream outputStream = new PipedOutputStream();
-		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream);
+		PromptPipe pipe = new PromptPipe();
+		OutputStream outputStream = pipe.getOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
 
-		// change default stdout
-		System.setOut(new PrintStream(promptOutputStream, true));
+		PrintStream out = new PrintStream(promptOutputStream, true);
 
 		// generate some random strings
 		int N_TEST_STRINGS = 1_000;
@@ -92,7 +98,7 @@ class PromptOutputStreamTest {
 			.collect(Collectors.toList());
 
 		Thread writerThread = new Thread(() -> {
-			strings.forEach(System.out::println);
+			strings.forEach(out::println);
 			try {
 				outputStream.flush();
 				outputStream.close();
@@ -103,7 +109,7 @@ class PromptOutputStreamTest {
 		writerThread.start();
 
 		// initialize Input
-		BufferedReader reader = new BufferedReader(new InputStreamReader(new PipedInputStream(outputStream)));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(pipe.getInputStream()));
 
 		String expectedPrompt = promptOutputStream.getPrompt();
 
@@ -125,7 +131,8 @@ class PromptOutputStreamTest {
 	@DisplayName("Prompt should be re-written and should contain the status icon")
 	void rewritePrompt() throws IOException {
 		// initialize Output
-		PipedOutputStream outputStream = new PipedOutputStream();
+		PromptPipe pipe = new PromptPipe();
+		OutputStream outputStream = pipe.getOutputStream();
 		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt(">>> ");
 
 		List<String> statusIcons = List.of("💀", "☠", "⏳", "💥", "🔥", "♥", "🇲🇽", "🇮🇱", "🇨🇱", "😍",
@@ -145,7 +152,7 @@ class PromptOutputStreamTest {
 		writerThread.start();
 
 		// initialize Input
-		BufferedReader reader = new BufferedReader(new InputStreamReader(new PipedInputStream(outputStream)));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(pipe.getInputStream()));
 
 		String line;
 		while (reader.readLine() != null) { // skip first \r written
@@ -166,11 +173,11 @@ class PromptOutputStreamTest {
 	@DisplayName("Testing with multiple threads")
 	void multiThread() throws IOException {
 		// initialize Output
-		PipedOutputStream outputStream = new PipedOutputStream();
+		PromptPipe pipe = new PromptPipe();
+		OutputStream outputStream = pipe.getOutputStream();
 		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("123> ");
 
-		// change default stdout
-		System.setOut(new PrintStream(promptOutputStream, true));
+		PrintStream out = new PrintStream(promptOutputStream, true);
 
 		// generate some random strings
 		int N_TEST_STRINGS = 1_000;
@@ -184,9 +191,7 @@ class PromptOutputStreamTest {
 		int N_THREADS = 5;
 		ExecutorService writerExecutorService = Executors.newFixedThreadPool(N_THREADS);
 		for (int i = 0; i < N_THREADS; ++i)
-			// writing to PipedOutputStream from different threads may not be a good idea, but let's 🤞
-			// https://techtavern.wordpress.com/2008/07/16/whats-this-ioexception-write-end-dead/
-			writerExecutorService.submit(() -> strings.forEach(System.out::println));
+			writerExecutorService.submit(() -> strings.forEach(out::println));
 		writerExecutorService.submit(() -> {
 			try {
 				boolean timed_out = writerExecutorService.awaitTermination(15, TimeUnit.SECONDS);
@@ -206,7 +211,7 @@ class PromptOutputStreamTest {
 		writerExecutorService.shutdown();
 
 		// initialize Input
-		BufferedReader reader = new BufferedReader(new InputStreamReader(new PipedInputStream(outputStream)));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(pipe.getInputStream()));
 		String line;
 		String prompt = promptOutputStream.getPrompt();
 		for (int i = 0; i < N_TEST_STRINGS * N_THREADS; ++i) {
@@ -228,24 +233,24 @@ class PromptOutputStreamTest {
 	@DisplayName("Testing prompt getter and setter")
 	void setPrompt() throws IOException {
 		// initialize Output
-		PipedOutputStream outputStream = new PipedOutputStream();
+		PromptPipe pipe = new PromptPipe();
+		OutputStream outputStream = pipe.getOutputStream();
 		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream);
 
-		// change default stdout
-		System.setOut(new PrintStream(promptOutputStream, true));
+		PrintStream out = new PrintStream(promptOutputStream, true);
 
 		Thread writerThread = new Thread(() -> {
 			promptOutputStream.setPrompt("1 ");
 			assertEquals("1 ", promptOutputStream.getPrompt());
-			System.out.println("Test");
+			out.println("Test");
 
 			promptOutputStream.setPrompt("2 ");
 			assertEquals("2 ", promptOutputStream.getPrompt());
-			System.out.println("Test");
+			out.println("Test");
 
 			promptOutputStream.setPrompt("3 ");
 			assertEquals("3 ", promptOutputStream.getPrompt());
-			System.out.println("Test");
+			out.println("Test");
 
 			try {
 				outputStream.flush();
@@ -257,7 +262,7 @@ class PromptOutputStreamTest {
 		writerThread.start();
 
 		// initialize Input
-		BufferedReader reader = new BufferedReader(new InputStreamReader(new PipedInputStream(outputStream)));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(pipe.getInputStream()));
 		assertEquals("Test", reader.readLine());
 		assertEquals("1 ", reader.readLine());
 		assertEquals("Test", reader.readLine());
@@ -270,21 +275,21 @@ class PromptOutputStreamTest {
 	@DisplayName("Testing status icon setter")
 	void setStatusIcon() throws IOException {
 		// initialize Output
-		PipedOutputStream outputStream = new PipedOutputStream();
+		PromptPipe pipe = new PromptPipe();
+		OutputStream outputStream = pipe.getOutputStream();
 		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream);
 
-		// change default stdout
-		System.setOut(new PrintStream(promptOutputStream, true));
+		PrintStream out = new PrintStream(promptOutputStream, true);
 
 		Thread writerThread = new Thread(() -> {
 			promptOutputStream.setStatusIcon("🙈");
-			System.out.println("Test");
+			out.println("Test");
 
 			promptOutputStream.setStatusIcon("🤯");
-			System.out.println("Test");
+			out.println("Test");
 
 			promptOutputStream.setStatusIcon("😵");
-			System.out.println("Test");
+			out.println("Test");
 
 			try {
 				outputStream.flush();
@@ -296,7 +301,7 @@ class PromptOutputStreamTest {
 		writerThread.start();
 
 		// initialize Input
-		BufferedReader reader = new BufferedReader(new InputStreamReader(new PipedInputStream(outputStream)));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(pipe.getInputStream()));
 		assertEquals("Test", reader.readLine());
 		assertTrue(reader.readLine().startsWith("🙈"));
 		assertEquals("Test", reader.readLine());
@@ -306,100 +311,468 @@ class PromptOutputStreamTest {
 	}
 
 	@Test()
-	@DisplayName("Example using stdout")
-	void example() {
-		// initialize IO
-		PromptOutputStream pos = new PromptOutputStream(System.out);
+	@DisplayName("Each line and each prompt should cost a single downstream write")
+	void singleWritePerLine() {
+		CountingOutputStream outputStream = new CountingOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream)
+			.setPrompt(">>> ")
+			.setStatusIcon("🧪");
+		PrintStream printStream = new PrintStream(promptOutputStream, true);
 
-		// change default stdout
-		System.setOut(new PrintStream(pos, true));
+		int N_TEST_STRINGS = 1_000;
+		for (int i = 0; i < N_TEST_STRINGS; ++i)
+			printStream.println(randomAsciiString(100));
 
-		// write some stuff to stdout
-		System.out.println("Just an example");
-		System.out.println("Check output is not corrupted");
-		System.out.println("The prompt should appear below this line");
+		assertEquals(N_TEST_STRINGS, outputStream.writes);
+
+		outputStream.writes = 0;
+		promptOutputStream.printPrompt();
+		promptOutputStream.printPrompt("⏳");
+		assertEquals(2, outputStream.writes);
 	}
 
 	@Test()
-	@DisplayName("Performance with PipedOutputStream")
-	void performance() {
-		long start_time;
-		long end_time;
-		long time1, time2;
+	@DisplayName("Prompt should be written only after the last line of a bulk write")
+	void multipleLinesInOneWrite() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
 
-		PipedOutputStream outputStream = new PipedOutputStream();
+		promptOutputStream.write("1\n2\n3\n".getBytes());
+		assertEquals("1\n2\n3\n$ ", outputStream.toString());
 
-		// generate some random strings
-		int N_TEST_STRINGS = 10_000;
-		List<String> strings = new Random()
-			.ints(5, 1_000) // length of the generated string
-			.limit(N_TEST_STRINGS)
-			.parallel()
-			.mapToObj(this::randomAsciiString)
-			.collect(Collectors.toList());
+		// incomplete line after some complete lines, the prompt is deleted and not written again
+		promptOutputStream.write("4\n5".getBytes());
+		assertEquals("1\n2\n3\n$ \r4\n5", outputStream.toString());
 
-		//// Test without custom out
-		// change default stdout
-		System.setOut(new PrintStream(outputStream, true));
+		// nothing written, nothing should change
+		promptOutputStream.write(new byte[0]);
+		assertEquals("1\n2\n3\n$ \r4\n5", outputStream.toString());
 
-		start_time = System.currentTimeMillis();
-		strings.forEach(System.out::println);
-		end_time = System.currentTimeMillis();
-		time1 = end_time - start_time;
-		originalOut.println("Without PromptOutputStream and " + N_TEST_STRINGS + " strings, execution took: " + time1 + "ms");
+		// the line is completed, the prompt is shown. There is no prompt to delete
+		promptOutputStream.write("6\n".getBytes());
+		assertEquals("1\n2\n3\n$ \r4\n56\n$ ", outputStream.toString());
+	}
 
-		//// Test with custom out
-		// change default stdout
-		System.setOut(new PrintStream(new PromptOutputStream(outputStream), true));
+	@Test()
+	@DisplayName("Status icon and prompt should be updated together")
+	void update() {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream)
+			.update("⏳", ">>> ");
 
-		start_time = System.currentTimeMillis();
-		strings.forEach(System.out::println);
-		end_time = System.currentTimeMillis();
-		time2 = (end_time - start_time);
-		originalOut.println("With PromptOutputStream and " + N_TEST_STRINGS + " strings, execution took: " + time2 + "ms");
+		assertEquals(">>> ", promptOutputStream.getPrompt());
+		assertSame(promptOutputStream.getPrompt(), promptOutputStream.getPrompt()); // should not decode again
 
-		originalOut.println("Difference is: " + (time2 - time1) + "ms = " + Math.abs(time2 - time1) / 1_000f + "s");
-		assertTrue(Math.abs(time2 - time1) / 1_000f <= 2); // time difference should be very low
+		promptOutputStream.printPrompt();
+		assertEquals("\r⏳ >>> ", outputStream.toString(StandardCharsets.UTF_8));
+
+		promptOutputStream.update(null, "$ ").printPrompt();
+		assertEquals("\r⏳ >>> \r$ ", outputStream.toString(StandardCharsets.UTF_8));
 	}
 
 	@Test()
-	@DisplayName("Performance with real stdout output")
-	void performanceNoPipe() {
-		long start_time;
-		long end_time;
-		long time1, time2;
+	@DisplayName("printPrompt(icon) should redraw at most once per interval, showing the latest icon")
+	void redrawInterval() throws InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream)
+			.setPrompt("$ ")
+			.setRedrawInterval(Duration.ofMillis(200));
+
+		long start_time = System.nanoTime();
+		int N_CALLS = 10_000;
+		for (int i = 0; i < N_CALLS; ++i)
+			promptOutputStream.printPrompt(String.valueOf(i));
+		long elapsed_ms = (System.nanoTime() - start_time) / 1_000_000;
+
+		Thread.sleep(500); // wait for the last redraw
+
+		String output;
+		synchronized (outputStream) {
+			output = outputStream.toString(StandardCharsets.UTF_8);
+		}
+		long redraws = output.chars().filter(c -> c == '\r').count();
+		assertTrue(redraws >= 2); // the first call and the last one
+		assertTrue(redraws <= 2 + elapsed_ms / 200, redraws + " redraws in " + elapsed_ms + "ms");
+		assertTrue(output.startsWith("\r0 $ "));
+		assertTrue(output.endsWith("\r" + (N_CALLS - 1) + " $ "));
+	}
 
-		originalOut.println();
-		originalOut.println();
-		originalOut.println();
+	@Test()
+	@DisplayName("The first printPrompt(icon) should redraw right away, even with a redraw interval")
+	void redrawIntervalFirstCall() {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream)
+			.setPrompt("$ ")
+			.setRedrawInterval(Duration.ofHours(1));
+
+		promptOutputStream.printPrompt("0");
+		assertEquals("\r0 $ ", outputStream.toString(StandardCharsets.UTF_8));
+	}
 
-		// generate some random strings
-		int N_TEST_STRINGS = 1_000;
-		List<String> strings = new Random()
-			.ints(5, 100) // length of the generated string
-			.limit(N_TEST_STRINGS)
-			.parallel()
+	@Test()
+	@DisplayName("A burst of lines should be followed by a single prompt when the prompt is deferred")
+	void promptDelay() throws IOException, InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream)
+			.setPrompt("$ ")
+			.setPromptDelay(Duration.ofMillis(200));
+
+		StringBuilder expected = new StringBuilder();
+		int N_LINES = 1_000;
+		for (int i = 0; i < N_LINES; ++i) {
+			promptOutputStream.write((i + "\n").getBytes());
+			expected.append(i).append('\n');
+		}
+		assertEquals(expected.toString(), outputStream.toString()); // no prompt yet
+
+		Thread.sleep(500);
+		expected.append("$ ");
+		assertEquals(expected.toString(), outputStream.toString());
+
+		// the prompt is deleted as usual
+		promptOutputStream.write("a\n".getBytes());
+		expected.append("\ra\n");
+		assertEquals(expected.toString(), outputStream.toString());
+
+		// an incomplete line cancels the pending prompt
+		promptOutputStream.write("b".getBytes());
+		Thread.sleep(500);
+		expected.append("b");
+		assertEquals(expected.toString(), outputStream.toString());
+
+		// an explicit call prints the prompt right away
+		promptOutputStream.write("\n".getBytes());
+		promptOutputStream.printPrompt();
+		Thread.sleep(500);
+		expected.append("\n\r$ ");
+		assertEquals(expected.toString(), outputStream.toString());
+	}
+
+	@Test()
+	@DisplayName("With a status line, lines should be written without the prompt")
+	void statusLine() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+		promptOutputStream.write("0\n".getBytes());
+
+		promptOutputStream.enableStatusLine(24);
+		String expected = "0\n$ " +
+			"\r\033[2K" + // the prompt is deleted
+			"\n\033[1A\0337\033[1;23r\0338" + // scrolling region
+			"\0337\033[24;1H\033[2K$ \0338"; // status line
+		assertEquals(expected, outputStream.toString());
+
+		promptOutputStream.write("1\n2".getBytes());
+		promptOutputStream.write('\n');
+		expected += "1\n2\n";
+		assertEquals(expected, outputStream.toString());
+
+		promptOutputStream.printPrompt("x");
+		expected += "\0337\033[24;1H\033[2Kx $ \0338";
+		assertEquals(expected, outputStream.toString());
+
+		promptOutputStream.disableStatusLine();
+		expected += "\0337\033[24;1H\033[2K\033[r\0338";
+		assertEquals(expected, outputStream.toString());
+
+		promptOutputStream.write("3\n".getBytes());
+		expected += "3\nx $ ";
+		assertEquals(expected, outputStream.toString());
+	}
+
+	@Test()
+	@DisplayName("Only the bytes that changed should be rewritten")
+	void minimalRedraw() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream);
+
+		// without prompt, the cursor is always at the beginning of the line, no need for \r
+		promptOutputStream.write("1\n".getBytes());
+		promptOutputStream.write("2".getBytes());
+		promptOutputStream.write("\n".getBytes());
+		String expected = "1\n2\n";
+		assertEquals(expected, outputStream.toString(StandardCharsets.UTF_8));
+
+		promptOutputStream.setPrompt("prompt> ").printPrompt("⠋");
+		expected += "\r⠋ prompt> ";
+		assertEquals(expected, outputStream.toString(StandardCharsets.UTF_8));
+
+		// same prompt and an icon with the same width, only the icon is written
+		promptOutputStream.printPrompt("⠙");
+		expected += "\0337\r⠙ \0338";
+		assertEquals(expected, outputStream.toString(StandardCharsets.UTF_8));
+
+		// the width of emoji is not known, everything is written
+		promptOutputStream.printPrompt("⏳");
+		expected += "\r⏳ prompt> ";
+		assertEquals(expected, outputStream.toString(StandardCharsets.UTF_8));
+
+		// explicit calls always write everything
+		promptOutputStream.printPrompt();
+		expected += "\r⏳ prompt> ";
+		assertEquals(expected, outputStream.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test()
+	@DisplayName("Repeated lines should be rewritten in place with a counter")
+	void repeatedLines() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream)
+			.setPrompt("$ ")
+			.setRepeatedLineWindow(16);
+
+		promptOutputStream.write("retry\n".getBytes());
+		String expected = "retry\n$ ";
+		assertEquals(expected, outputStream.toString());
+
+		for (int i = 2; i <= 11; ++i) {
+			promptOutputStream.write("retry\n".getBytes());
+			expected += "\033[1A\rretry (x" + i + ")\n$ ";
+			assertEquals(expected, outputStream.toString());
+		}
+
+		// different line
+		promptOutputStream.write("done\n".getBytes());
+		expected += "\rdone\n$ ";
+		assertEquals(expected, outputStream.toString());
+
+		// the last line of a write with many lines is remembered, but only lines written alone are collapsed
+		promptOutputStream.write("done\nok\n".getBytes());
+		expected += "\rdone\nok\n$ ";
+		promptOutputStream.write("ok\n".getBytes());
+		expected += "\033[1A\rok (x2)\n$ ";
+		assertEquals(expected, outputStream.toString());
+
+		// incomplete lines, empty lines and lines longer than the window are not collapsed
+		promptOutputStream.write("o".getBytes());
+		promptOutputStream.write("k\n".getBytes());
+		expected += "\rok\n$ ";
+		promptOutputStream.write("\n\n".getBytes());
+		promptOutputStream.write("\n".getBytes());
+		expected += "\r\n\n$ \r\n$ ";
+		promptOutputStream.write("a very long line, longer than 16 bytes\n".getBytes());
+		promptOutputStream.write("a very long line, longer than 16 bytes\n".getBytes());
+		expected += "\ra very long line, longer than 16 bytes\n$ \ra very long line, longer than 16 bytes\n$ ";
+		assertEquals(expected, outputStream.toString());
+
+		// after printPrompt() the cursor may not be where it was
+		promptOutputStream.write("ok\n".getBytes());
+		promptOutputStream.printPrompt();
+		promptOutputStream.write("ok\n".getBytes());
+		expected += "\rok\n$ \r$ \rok\n$ ";
+		assertEquals(expected, outputStream.toString());
+	}
+
+	@Test()
+	@DisplayName("The counter of repeated lines should be rewritten at most once per redraw interval")
+	void repeatedLinesInterval() throws IOException, InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream)
+			.setPrompt("$ ")
+			.setRepeatedLineWindow(16)
+			.setRedrawInterval(Duration.ofHours(1));
+
+		for (int i = 0; i < 1_000; ++i)
+			promptOutputStream.write("retry\n".getBytes());
+		String expected = "retry\n$ \033[1A\rretry (x2)\n$ ";
+		assertEquals(expected, outputStream.toString());
+
+		// the counter is written before anything else
+		promptOutputStream.write("done\n".getBytes());
+		expected += "\033[1A\rretry (x1000)\n$ \rdone\n$ ";
+		assertEquals(expected, outputStream.toString());
+
+		// or when the interval elapses
+		outputStream.reset();
+		promptOutputStream = new PromptOutputStream(outputStream)
+			.setPrompt("$ ")
+			.setRepeatedLineWindow(16)
+			.setRedrawInterval(Duration.ofMillis(50));
+		for (int i = 0; i < 4; ++i)
+			promptOutputStream.write("done\n".getBytes());
+		expected = "done\n$ \033[1A\rdone (x2)\n$ ";
+		assertEquals(expected, outputStream.toString());
+		Thread.sleep(300);
+		expected += "\033[1A\rdone (x4)\n$ ";
+		assertEquals(expected, outputStream.toString());
+
+		// or when the whole prompt is redrawn
+		outputStream.reset();
+		promptOutputStream = new PromptOutputStream(outputStream)
+			.setPrompt("$ ")
+			.setRepeatedLineWindow(16)
+			.setRedrawInterval(Duration.ofHours(1));
+		for (int i = 0; i < 5; ++i)
+			promptOutputStream.write("retry\n".getBytes());
+		promptOutputStream.printPrompt();
+		expected = "retry\n$ \033[1A\rretry (x2)\n$ \033[1A\rretry (x5)\n$ \r$ ";
+		assertEquals(expected, outputStream.toString());
+
+		// or when the window changes
+		outputStream.reset();
+		promptOutputStream = new PromptOutputStream(outputStream)
+			.setPrompt("$ ")
+			.setRepeatedLineWindow(16)
+			.setRedrawInterval(Duration.ofHours(1));
+		for (int i = 0; i < 5; ++i)
+			promptOutputStream.write("retry\n".getBytes());
+		promptOutputStream.setRepeatedLineWindow(32);
+		promptOutputStream.write("x\n".getBytes());
+		expected = "retry\n$ \033[1A\rretry (x2)\n$ \033[1A\rretry (x5)\n$ \rx\n$ ";
+		assertEquals(expected, outputStream.toString());
+	}
+
+	@Test()
+	@DisplayName("A new line written alone should not be overwritten by a pending counter")
+	void repeatedLinesSingleByte() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream)
+			.setPrompt("$ ")
+			.setRepeatedLineWindow(16)
+			.setRedrawInterval(Duration.ofHours(1));
+
+		for (int i = 0; i < 3; ++i)
+			promptOutputStream.write("retry\n".getBytes());
+		promptOutputStream.write('\n');
+		String expected = "retry\n$ \033[1A\rretry (x2)\n$ \033[1A\rretry (x3)\n$ \r\n$ ";
+		assertEquals(expected, outputStream.toString());
+	}
+
+	@Test()
+	@DisplayName("In passthrough mode, the output should be written as it is, without prompt nor flushes")
+	void passthrough() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		CountingOutputStream countingOutputStream = new CountingOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+		PromptOutputStream counted = new PromptOutputStream(countingOutputStream).setPrompt("$ ");
+
+		promptOutputStream.write("1\n".getBytes());
+		assertEquals("1\n$ ", outputStream.toString());
+
+		// the prompt that is already shown is deleted
+		promptOutputStream.setPassthrough(true);
+		counted.setPassthrough(true);
+		assertEquals("1\n$ \r\033[2K", outputStream.toString());
+		outputStream.reset();
+
+		for (PromptOutputStream out : new PromptOutputStream[]{promptOutputStream, counted}) {
+			out.write("2\n".getBytes());
+			out.write('3');
+			out.write('\n');
+			out.printPrompt("⏳");
+			out.printPrompt();
+		}
+		assertEquals("2\n3\n", outputStream.toString());
+		assertEquals(0, countingOutputStream.flushes);
+
+		// the state still changes, so the prompt is right once passthrough is disabled
+		promptOutputStream.setPassthrough(false);
+		promptOutputStream.write("4\n".getBytes());
+		assertEquals("2\n3\n4\n⏳ $ ", outputStream.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test()
+	@DisplayName("In passthrough mode, writes from different threads should not be mixed")
+	void passthroughMultiThread() throws Exception {
+		PromptPipe pipe = new PromptPipe(1024); // it doesn't support concurrent writers, so the stream must serialize them
+		PromptOutputStream promptOutputStream = new PromptOutputStream(pipe.getOutputStream()).setPassthrough(true);
+
+		int N_THREADS = 4;
+		int N_LINES = 2_000;
+		List<String> threadLines = new Random()
+			.ints(N_THREADS, 5, 100)
 			.mapToObj(this::randomAsciiString)
 			.collect(Collectors.toList());
+		ExecutorService writerExecutorService = Executors.newFixedThreadPool(N_THREADS);
+		for (String line : threadLines)
+			writerExecutorService.submit(() -> {
+				byte[] lineBytes = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+				for (int j = 0; j < N_LINES; ++j)
+					promptOutputStream.write(lineBytes);
+				return null;
+			});
+		writerExecutorService.shutdown();
+		new Thread(() -> {
+			try {
+				writerExecutorService.awaitTermination(30, TimeUnit.SECONDS);
+				pipe.getOutputStream().close();
+			} catch (InterruptedException | IOException e) {
+				e.printStackTrace();
+			}
+		}).start();
 
-		//// Test without custom out
-		start_time = System.currentTimeMillis();
-		strings.forEach(System.out::println);
-		end_time = System.currentTimeMillis();
-		time1 = end_time - start_time;
-		originalOut.println("Without PromptOutputStream and " + N_TEST_STRINGS + " strings, execution took: " + time1 + "ms");
+		BufferedReader reader = new BufferedReader(new InputStreamReader(pipe.getInputStream()));
+		int lines = 0;
+		for (String actual; (actual = reader.readLine()) != null; ++lines)
+			assertTrue(threadLines.contains(actual)); // a line written by a single thread, not mixed
+		assertEquals(N_THREADS * N_LINES, lines);
+	}
 
-		//// Test with custom out
-		// change default stdout
-		System.setErr(new PrintStream(new PromptOutputStream(System.out), true));
+	@Test()
+	@DisplayName("Virtual threads waiting for the stream should not pin carrier threads")
+	void virtualThreads() throws Exception {
+		// virtual threads are only available in Java 21+, but the project is compiled for Java 11
+		Method newVirtualThreadPerTaskExecutor;
+		try {
+			newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			assumeTrue(false, "Virtual threads are not available");
+			return;
+		}
+
+		// output that blocks until the latch is released, like a terminal that stopped reading
+		CountDownLatch release = new CountDownLatch(1);
+		OutputStream slowOutputStream = new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte @NotNull [] b, int off, int len) throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+		};
+		// write directly to the stream, PrintStream has its own lock
+		PromptOutputStream promptOutputStream = new PromptOutputStream(slowOutputStream).setPrompt("$ ");
+		byte[] line = "Test\n".getBytes();
+
+		int N_THREADS = 10_000;
+		ExecutorService executorService = (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+		long start_time = System.currentTimeMillis();
+		for (int i = 0; i < N_THREADS; ++i)
+			executorService.submit(() -> {
+				promptOutputStream.write(line);
+				return null;
+			});
+
+		// one thread is blocked writing while holding the lock, all others are waiting for the lock. If they
+		// pinned their carriers, there would be no carrier left to run this
+		executorService.submit(() -> {
+		}).get(10, TimeUnit.SECONDS);
+
+		release.countDown();
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+		originalOut.println(N_THREADS + " virtual threads printed through the same stream in " +
+			(System.currentTimeMillis() - start_time) + "ms");
+	}
 
-		start_time = System.currentTimeMillis();
-		strings.forEach(System.out::println);
-		end_time = System.currentTimeMillis();
-		time2 = (end_time - start_time);
-		originalOut.println("With PromptOutputStream and " + N_TEST_STRINGS + " strings, execution took: " + time2 + "ms");
+	@Test()
+	@DisplayName("Example using stdout")
+	void example() {
+		// initialize IO
+		PromptOutputStream pos = new PromptOutputStream(System.out);
+
+		// change default stdout
+		System.setOut(new PrintStream(pos, true));
 
-		originalOut.println("Difference is: " + (time2 - time1) + "ms = " + Math.abs(time2 - time1) / 1_000f + "s");
-		assertTrue(Math.abs(time2 - time1) / 1_000f <= 2); // time difference should be very low
+		// write some stuff to stdout
+		System.out.println("Just an example");
+		System.out.println("Check output is not corrupted");
+		System.out.println("The prompt should appear below this line");
 	}
-}
\ No newline at end of file
+}
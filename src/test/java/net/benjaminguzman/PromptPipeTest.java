@@ -0,0 +1,209 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptPipeTest {
+	@Test()
+	@DisplayName("Bytes should be read in the same order they were written, even if they wrap around the buffer")
+	void readWrite() throws Exception {
+		PromptPipe pipe = new PromptPipe(16);
+		assertEquals(16, pipe.getCapacity());
+		assertEquals(32, new PromptPipe(17).getCapacity());
+
+		byte[] data = new byte[100_000];
+		new Random().nextBytes(data);
+
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread writerThread = new Thread(() -> {
+			try (OutputStream out = pipe.getOutputStream()) {
+				// writes of different sizes, bigger and smaller than the buffer
+				for (int off = 0, len = 1; off < data.length; off += len, len = len % 37 + 1)
+					out.write(data, off, Math.min(len, data.length - off));
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		writerThread.start();
+
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		InputStream in = pipe.getInputStream();
+		byte[] buf = new byte[7];
+		int n;
+		while ((n = in.read(buf)) != -1)
+			read.write(buf, 0, n);
+
+		writerThread.join();
+		assertNull(failure.get());
+		assertArrayEquals(data, read.toByteArray());
+		assertEquals(-1, in.read()); // EOF is not forgotten
+	}
+
+	@Test()
+	@DisplayName("poll should not wait")
+	void poll() throws IOException {
+		PromptPipe pipe = new PromptPipe(8);
+		byte[] buf = new byte[8];
+		assertEquals(0, pipe.poll(buf, 0, buf.length));
+
+		pipe.getOutputStream().write("abc".getBytes(StandardCharsets.US_ASCII));
+		assertEquals(3, pipe.getInputStream().available());
+		assertEquals(2, pipe.poll(buf, 0, 2));
+		assertEquals(1, pipe.poll(buf, 2, 6));
+		assertEquals("abc", new String(buf, 0, 3, StandardCharsets.US_ASCII));
+		assertEquals(0, pipe.poll(buf, 0, buf.length));
+
+		pipe.getOutputStream().write('d');
+		pipe.getOutputStream().close();
+		assertEquals(1, pipe.poll(buf, 0, buf.length));
+		assertEquals('d', buf[0]);
+		assertEquals(-1, pipe.poll(buf, 0, buf.length));
+		assertThrows(IOException.class, () -> pipe.getOutputStream().write('e'));
+	}
+
+	@Test()
+	@DisplayName("A blocked reader should be woken up by the writer, and a blocked writer by the reader")
+	void blocking() throws Exception {
+		PromptPipe pipe = new PromptPipe(4);
+		CountDownLatch written = new CountDownLatch(1);
+
+		Thread writerThread = new Thread(() -> {
+			try {
+				pipe.getOutputStream().write("12345678".getBytes(StandardCharsets.US_ASCII)); // twice the buffer
+				written.countDown();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+		writerThread.start();
+
+		// the writer must wait for the reader to make space
+		assertFalse(written.await(100, TimeUnit.MILLISECONDS));
+
+		byte[] buf = new byte[8];
+		int n = 0;
+		while (n < buf.length)
+			n += pipe.getInputStream().read(buf, n, buf.length - n);
+		assertTrue(written.await(5, TimeUnit.SECONDS));
+		assertEquals("12345678", new String(buf, StandardCharsets.US_ASCII));
+
+		// the reader must wait for the writer
+		Thread lateWriterThread = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+				pipe.getOutputStream().write('9');
+				pipe.getOutputStream().close();
+			} catch (InterruptedException | IOException e) {
+				e.printStackTrace();
+			}
+		});
+		lateWriterThread.start();
+		assertEquals('9', pipe.getInputStream().read());
+		assertEquals(-1, pipe.getInputStream().read());
+	}
+
+	@Test()
+	@DisplayName("Closing the read end should make a blocked writer fail")
+	void closeReader() throws Exception {
+		PromptPipe pipe = new PromptPipe(4);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		Thread writerThread = new Thread(() -> {
+			try {
+				pipe.getOutputStream().write(new byte[64]);
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		writerThread.start();
+		Thread.sleep(100);
+
+		pipe.getInputStream().close();
+		writerThread.join(5_000);
+		assertFalse(writerThread.isAlive());
+		assertInstanceOf(IOException.class, failure.get());
+		assertEquals("Pipe closed", failure.get().getMessage());
+		assertThrows(IOException.class, () -> pipe.poll(new byte[1], 0, 1));
+	}
+
+	@Test()
+	@DisplayName("The output of a prompt written from many threads should be read without errors")
+	void promptOutput() throws Exception {
+		PromptPipe pipe = new PromptPipe(256);
+		PromptOutputStream promptOutputStream = new PromptOutputStream(pipe.getOutputStream()).setPrompt("$ ");
+		PrintStream out = new PrintStream(promptOutputStream, true);
+
+		int N_THREADS = 4;
+		int N_LINES = 1_000;
+		Thread[] writerThreads = new Thread[N_THREADS];
+		for (int i = 0; i < N_THREADS; ++i) {
+			int thread = i;
+			writerThreads[i] = new Thread(() -> {
+				for (int j = 0; j < N_LINES; ++j)
+					out.println(thread + " " + j);
+			});
+			writerThreads[i].start();
+		}
+		new Thread(() -> {
+			try {
+				for (Thread writerThread : writerThreads)
+					writerThread.join();
+				pipe.getOutputStream().close();
+			} catch (InterruptedException | IOException e) {
+				e.printStackTrace();
+			}
+		}).start();
+
+		int[] next = new int[N_THREADS];
+		BufferedReader reader = new BufferedReader(new InputStreamReader(pipe.getInputStream()));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.equals("$ "))
+				continue;
+
+			String[] parts = line.split(" ");
+			int thread = Integer.parseInt(parts[0]);
+			assertEquals(next[thread]++, Integer.parseInt(parts[1])); // lines of each thread are in order
+		}
+
+		int[] expected = new int[N_THREADS];
+		Arrays.fill(expected, N_LINES);
+		assertArrayEquals(expected, next);
+		assertFalse(out.checkError());
+	}
+}
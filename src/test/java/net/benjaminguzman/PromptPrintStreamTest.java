@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptPrintStreamTest {
+	@Test()
+	@DisplayName("Output should be the same as the output of PrintStream(PromptOutputStream)")
+	void sameOutput() {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		PromptOutputStream promptOut = new PromptOutputStream(expected).setPrompt("$ ").setStatusIcon("🧪");
+		PrintStream printStream = new PrintStream(promptOut, true, StandardCharsets.UTF_8);
+
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		PromptPrintStream promptPrintStream = new PromptPrintStream(
+			new PromptOutputStream(actual).setPrompt("$ ").setStatusIcon("🧪"),
+			StandardCharsets.UTF_8
+		);
+
+		for (PrintStream out : new PrintStream[]{printStream, promptPrintStream}) {
+			out.println("Test");
+			out.print("1\n2\n");
+			out.print('3');
+			out.println();
+			out.print(4);
+			out.println(5.5);
+			out.printf("%s, %d%n", "ñ", 6);
+			out.append("abcdef", 1, 3).append('\n');
+			out.println(new char[]{'x', 'y'});
+			out.print((String) null);
+			out.println((Object) null);
+		}
+		promptOut.printPrompt("⏳");
+		promptPrintStream.getPromptOutputStream().printPrompt("⏳");
+
+		assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+		assertFalse(promptPrintStream.checkError());
+	}
+
+	@Test()
+	@DisplayName("Line, \\r and prompt should be written with a single write")
+	void singleWritePerLine() {
+		CountingOutputStream countingOut = new CountingOutputStream();
+		PromptPrintStream out = new PromptPrintStream(new PromptOutputStream(countingOut).setPrompt(">>> "),
+			StandardCharsets.UTF_8);
+
+		int N_LINES = 1_000;
+		for (int i = 0; i < N_LINES; ++i)
+			out.println("Test");
+
+		assertEquals(N_LINES, countingOut.writes);
+	}
+
+	@Test()
+	@DisplayName("Surrogate pairs and text bigger than the buffers should be encoded correctly")
+	void encoding() {
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+		PromptPrintStream out = new PromptPrintStream(new PromptOutputStream(bytesOut).setPrompt("$ "),
+			StandardCharsets.UTF_8);
+
+		String emoji = "🧪";
+		out.print(emoji.charAt(0));
+		out.print(emoji.charAt(1));
+
+		String big = "ñ".repeat(10_000) + emoji.repeat(1_000);
+		out.println(new StringBuilder(big));
+
+		out.close();
+		assertEquals(emoji + big + "\n$ ", bytesOut.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test()
+	@DisplayName("Closing should close the underlying stream, and printing after it should only set the error")
+	void close() {
+		AtomicBoolean closed = new AtomicBoolean();
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream() {
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		};
+		PromptPrintStream out = new PromptPrintStream(new PromptOutputStream(bytesOut).setPrompt("$ "),
+			StandardCharsets.UTF_8);
+
+		out.println("Test");
+		out.close();
+		assertTrue(closed.get());
+		assertFalse(out.checkError());
+
+		out.println("after close");
+		out.write('x');
+		out.flush();
+		out.close();
+		assertEquals("Test\n$ ", bytesOut.toString(StandardCharsets.UTF_8));
+		assertTrue(out.checkError());
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptWriterTest {
+	@Test()
+	@DisplayName("Output should be the same as the output of PromptOutputStream")
+	void sameOutput() throws IOException {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		PromptOutputStream promptOut = new PromptOutputStream(expected).setPrompt("$ ").setStatusIcon("🧪");
+		promptOut.write("Test\n".getBytes(StandardCharsets.UTF_8));
+		promptOut.write("1\n2\n".getBytes(StandardCharsets.UTF_8));
+		promptOut.write("3".getBytes(StandardCharsets.UTF_8));
+		promptOut.write("\n".getBytes(StandardCharsets.UTF_8));
+		promptOut.write("ñ😀\n".getBytes(StandardCharsets.UTF_8));
+		promptOut.printPrompt("⏳");
+
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		PromptWriter writer = new PromptWriter(
+			new PromptOutputStream(actual).setPrompt("$ ").setStatusIcon("🧪"),
+			StandardCharsets.UTF_8
+		);
+		writer.write("Test\n");
+		writer.write("1\n2\n".toCharArray());
+		writer.append(new StringBuilder("3"));
+		writer.append('\n');
+		writer.append(CharBuffer.wrap("xñ😀\n"), 1, 5);
+		writer.getPromptOutputStream().printPrompt("⏳");
+
+		assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test()
+	@DisplayName("A writer should share the prompt of an existing PromptOutputStream")
+	void sharedPrompt() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOut = new PromptOutputStream(outputStream).setPrompt("$ ");
+		PromptWriter writer = new PromptWriter(promptOut, StandardCharsets.UTF_8);
+
+		promptOut.write("1\n".getBytes(StandardCharsets.UTF_8));
+		writer.write("2\n");
+		writer.getPromptOutputStream().setPrompt(null);
+		promptOut.write("3\n".getBytes(StandardCharsets.UTF_8));
+
+		assertEquals("1\n$ \r2\n$ \r3\n", outputStream.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test()
+	@DisplayName("Line, \\r and prompt should be written with a single write")
+	void singleWritePerLine() throws IOException {
+		CountingOutputStream countingOut = new CountingOutputStream();
+		PromptWriter writer = new PromptWriter(new PromptOutputStream(countingOut).setPrompt(">>> "),
+			StandardCharsets.UTF_8);
+
+		StringBuilder line = new StringBuilder("Test\n");
+		int N_LINES = 1_000;
+		for (int i = 0; i < N_LINES; ++i)
+			writer.append(line);
+
+		assertEquals(N_LINES, countingOut.writes);
+	}
+}
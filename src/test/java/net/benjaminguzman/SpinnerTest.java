@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpinnerTest {
+	@Test()
+	@DisplayName("Spinner should cycle the icons while the prompt is shown")
+	void spin() throws IOException, InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+		promptOutputStream.write("Test\n".getBytes(StandardCharsets.UTF_8));
+
+		Spinner spinner = Spinner.start(promptOutputStream, Duration.ofMillis(10), List.of("a", "b"));
+		Thread.sleep(200);
+		spinner.stop();
+		Thread.sleep(50); // let the last tick finish
+
+		String output = outputStream.toString(StandardCharsets.UTF_8);
+		assertTrue(output.startsWith("Test\n$ \ra $ \rb $ \ra $ "), output);
+	}
+
+	@Test()
+	@DisplayName("Spinner should not redraw while the line has other output")
+	void incompleteLine() throws IOException, InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+		promptOutputStream.write("Test\n".getBytes(StandardCharsets.UTF_8));
+		promptOutputStream.write("incomplete".getBytes(StandardCharsets.UTF_8));
+
+		Spinner spinner = Spinner.start(promptOutputStream, Duration.ofMillis(10), Spinner.LINE);
+		try {
+			Thread.sleep(100);
+			assertEquals("Test\n$ \rincomplete", outputStream.toString(StandardCharsets.UTF_8));
+
+			// the line is completed, so the prompt is shown again (with a spinner icon)
+			promptOutputStream.write(" line\n".getBytes(StandardCharsets.UTF_8));
+			Thread.sleep(100);
+		} finally {
+			spinner.close();
+		}
+		Thread.sleep(50);
+
+		String output = outputStream.toString(StandardCharsets.UTF_8);
+		assertTrue(output.startsWith("Test\n$ \rincomplete line\n"), output);
+		assertTrue(output.matches("(?s).*\\r[|/\\\\-] \\$ $"), output);
+	}
+
+	@Test()
+	@DisplayName("Spinner should use the new prompt if it's changed")
+	void promptChanged() throws IOException, InterruptedException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PromptOutputStream promptOutputStream = new PromptOutputStream(outputStream).setPrompt("$ ");
+
+		Spinner spinner = Spinner.start(promptOutputStream, Duration.ofMillis(10), List.of("a"));
+		try {
+			promptOutputStream.setPrompt(">>> ").printPrompt();
+			Thread.sleep(100);
+		} finally {
+			spinner.close();
+		}
+		Thread.sleep(50);
+
+		assertTrue(outputStream.toString(StandardCharsets.UTF_8).endsWith("\ra >>> "));
+	}
+}